@@ -0,0 +1,405 @@
+/**
+ * Table that holds either an Open Addressing or a Separate Chaining table and switches
+ * between them from statistics sampled since the last check.
+ * Whenever the current table would grow anyway, or rehash is called, it checks the mix of reads,
+ * writes, removes and misses along with the probe length and tombstones of the current table,
+ * and migrates every entry into the other representation in place of that rehash if that one should do better.
+ * @param <K> Key
+ * @param <V> Value
+ */
+class AdaptiveTable<K,V> {
+    /**
+     * Fewest operations before a check can switch.
+     */
+    private static final int MIN_WINDOW = 1024;
+
+    /**
+     * Share of gets that miss above which Open Addressing is left, since a miss probes past every empty slot.
+     */
+    private static final double OPEN_MAX_MISSES = 0.05;
+
+    /**
+     * Share of operations that remove, with tombstones over TOMBSTONE_LIMIT, above which Open Addressing is left.
+     */
+    private static final double OPEN_MAX_REMOVES = 0.2;
+
+    /**
+     * Share of slots holding tombstones that counts as heavy delete churn.
+     */
+    private static final double TOMBSTONE_LIMIT = 0.1;
+
+    /**
+     * Mean probe length above which Open Addressing is left.
+     */
+    private static final double OPEN_MAX_PROBE = 8;
+
+    /**
+     * Share of operations that read below which Separate Chaining is kept.
+     */
+    private static final double CHAIN_MIN_READS = 0.8;
+
+    /**
+     * Share of gets that miss above which Separate Chaining is kept.
+     */
+    private static final double CHAIN_MAX_MISSES = 0.01;
+
+    /**
+     * Share of operations that remove above which Separate Chaining is kept.
+     */
+    private static final double CHAIN_MAX_REMOVES = 0.02;
+
+    /**
+     * Open Addressing table, when in use.
+     */
+    private OpenAddress<K,V> table1;
+
+    /**
+     * Separate Chaining table, when in use.
+     */
+    private SeparateChain<K,V> table2;
+
+    /**
+     * Gets since the last check.
+     */
+    private long reads = 0;
+
+    /**
+     * Gets since the last check that found nothing.
+     */
+    private long misses = 0;
+
+    /**
+     * Puts since the last check.
+     */
+    private long writes = 0;
+
+    /**
+     * Removes since the last check.
+     */
+    private long removes = 0;
+
+    /**
+     * Number of switches so far.
+     */
+    private int switches = 0;
+
+    /**
+     * Why the last switch happened.
+     */
+    private String lastSwitchReason = "no switch yet";
+
+    /**
+     * Hashtable constructor.
+     * @param size Size of table
+     * @param useTable1 Start with Open Addressing, else Separate Chaining
+     */
+    public AdaptiveTable(int size, boolean useTable1) {
+        if (useTable1)
+            table1 = new OpenAddress<>(size);
+        else
+            table2 = new SeparateChain<>(size);
+    }
+
+    /**
+     * Return how many "slots" are in the table.
+     * @return Capacity
+     */
+    public int getCapacity() {
+        return table1 != null ? table1.getCapacity() : table2.getCapacity();
+    }
+
+    /**
+     * Return the number of elements in the table.
+     * @return Number of elements.
+     */
+    public int size() {
+        return table1 != null ? table1.size() : table2.size();
+    }
+
+    /**
+     * Checks which representation is in use.
+     * @return True for Open Addressing
+     */
+    public boolean isOpenAddressing() {
+        return table1 != null;
+    }
+
+    /**
+     * Return the number of switches so far.
+     * @return Switches
+     */
+    public int getSwitches() {
+        return switches;
+    }
+
+    /**
+     * Return why the last switch happened, with the statistics that caused it.
+     * @return Reason
+     */
+    public String getLastSwitchReason() {
+        return lastSwitchReason;
+    }
+
+    /**
+     * Puts entry in storage.
+     * @param k Key
+     * @param v Value
+     */
+    public void put(K k, V v) {
+        writes++;
+        //Both tables grow once an insert brings them to 0.8 of capacity; switch then instead.
+        if ((size() + 1) >= (getCapacity() * .8) && k != null && v != null
+                && (table1 != null ? table1.get(k) : table2.get(k)) == null)
+        {
+            String reason = check();
+            if (reason != null)
+                migrate(reason, migratedCapacity());
+        }
+        if (table1 != null) table1.put(k, v);
+        else table2.put(k, v);
+    }
+
+    /**
+     * Remove the given key (and associated value) from the table.
+     * @param k Key
+     * @return Value in the table if not null
+     */
+    public V remove(K k) {
+        V val = table1 != null ? table1.remove(k) : table2.remove(k);
+        removes++;
+        return val;
+    }
+
+    /**
+     * Given a key, return the value from the table.
+     * @param k Key
+     * @return Value
+     */
+    public V get(K k) {
+        V val = table1 != null ? table1.get(k) : table2.get(k);
+        reads++;
+        if (val == null)
+            misses++;
+        return val;
+    }
+
+    /**
+     * Rehashes storage, into the other representation if the statistics favour it.
+     * @param size New size
+     * @return True if successful
+     */
+    public boolean rehash(int size) {
+        if (size < (size() + 1))
+        {
+            return false;
+        }
+        String reason = check();
+        if (reason != null)
+        {
+            migrate(reason, size);
+            return true;
+        }
+        return table1 != null ? table1.rehash(size) : table2.rehash(size);
+    }
+
+    /**
+     * Checks the statistics since the last check, once there are enough of them.
+     * @return Why to switch, or null to stay
+     */
+    private String check() {
+        long ops = reads + writes + removes;
+        if (ops < MIN_WINDOW)
+            return null;
+
+        double readShare = (double) reads / ops;
+        double removeShare = (double) removes / ops;
+        double missShare = reads == 0 ? 0 : (double) misses / reads;
+        reads = misses = writes = removes = 0;
+
+        if (table1 != null)
+        {
+            double probe = table1.averageProbeLength();
+            double tombstones = (double) table1.tombstoneCount() / table1.getCapacity();
+            if (missShare > OPEN_MAX_MISSES)
+                return String.format("get miss share %.3f > %.3f", missShare, OPEN_MAX_MISSES);
+            else if (removeShare > OPEN_MAX_REMOVES && tombstones > TOMBSTONE_LIMIT)
+                return String.format("remove share %.3f > %.3f with tombstones in %.3f of slots", removeShare, OPEN_MAX_REMOVES, tombstones);
+            else if (probe > OPEN_MAX_PROBE)
+                return String.format("mean probe length %.1f > %.1f", probe, OPEN_MAX_PROBE);
+        }
+        else if (readShare > CHAIN_MIN_READS && missShare < CHAIN_MAX_MISSES && removeShare < CHAIN_MAX_REMOVES)
+        {
+            double walk = table2.averageProbeLength();
+            double probe = openProbeLength(migratedCapacity());
+            if (probe <= walk)
+                return String.format("read share %.3f > %.3f, get miss share %.3f < %.3f, remove share %.3f < %.3f, probe length %.2f <= chain walk %.2f",
+                        readShare, CHAIN_MIN_READS, missShare, CHAIN_MAX_MISSES, removeShare, CHAIN_MAX_REMOVES, probe, walk);
+        }
+        return null;
+    }
+
+    /**
+     * Calculates the mean probe length Open Addressing would have for the current keys,
+     * by placing their hash positions with linear probing without moving any entries.
+     * @param capacity Capacity of the Open Addressing table
+     * @return Probe length
+     */
+    private double openProbeLength(int capacity) {
+        boolean[] used = new boolean[capacity];
+        long[] probes = {0};
+        table2.forEach((k, v) -> {
+            int bucket = Math.abs(k.hashCode() % capacity);
+            int start = bucket;
+            while (used[bucket])
+                bucket = (bucket + 1) % capacity;
+            used[bucket] = true;
+            probes[0] += (bucket - start + capacity) % capacity + 1;
+        });
+        return size() == 0 ? 0 : (double) probes[0] / size();
+    }
+
+    /**
+     * Return the capacity of a migrated table, leaving room to grow before its next rehash.
+     * @return Capacity
+     */
+    private int migratedCapacity() {
+        return Math.max(2, size() * 2 + 1);
+    }
+
+    /**
+     * Moves every entry into the other representation.
+     * @param reason Why
+     * @param capacity Capacity of the new table
+     */
+    private void migrate(String reason, int capacity) {
+        if (table1 != null)
+        {
+            SeparateChain<K,V> chained = new SeparateChain<>(capacity);
+            table1.forEach(chained::put);
+            table1 = null;
+            table2 = chained;
+            lastSwitchReason = "to Separate Chaining: " + reason;
+        }
+        else
+        {
+            OpenAddress<K,V> open = new OpenAddress<>(capacity);
+            table2.forEach(open::put);
+            table2 = null;
+            table1 = open;
+            lastSwitchReason = "to Open Addressing: " + reason;
+        }
+        switches++;
+    }
+
+    /**
+     * Testing code.
+     * @param args args
+     */
+    public static void main(String[] args) {
+        AdaptiveTable<Integer,Integer> st1 = new AdaptiveTable<>(2, true);
+        for(int i = 0; i < 2000; i++) {
+            st1.put(i, i);
+        }
+        for(int i = 0; i < 2000; i++) {
+            st1.get(-1 - i);
+        }
+        //Gets alone never move entries; the switch waits for a rehash.
+        boolean waited = st1.isOpenAddressing() && st1.getSwitches() == 0;
+        if(waited && st1.rehash(st1.getCapacity()) && !st1.isOpenAddressing() && st1.getSwitches() == 1 && st1.getLastSwitchReason().contains("miss") && st1.size() == 2000 && st1.get(7).equals(7)) {
+            System.out.println("Yay 1");
+        }
+
+        for(int round = 0; round < 3; round++) {
+            for(int i = 0; i < 2000; i++) {
+                st1.get(i);
+            }
+        }
+        waited = !st1.isOpenAddressing() && st1.getSwitches() == 1;
+        //Growing past capacity is the other point where a switch happens.
+        for(int i = 2000; st1.getSwitches() == 1 && i < 10000; i++) {
+            st1.put(i, i);
+        }
+        boolean all = waited && st1.isOpenAddressing() && st1.getSwitches() == 2 && st1.getLastSwitchReason().contains("read share");
+        for(int i = 0; i < st1.size(); i++) {
+            all &= st1.get(i).equals(i);
+        }
+        if(all) {
+            System.out.println("Yay 2");
+        }
+
+        AdaptiveTable<String,Integer> st2 = new AdaptiveTable<>(2, false);
+        for(int i = 0; i < 2000; i++) {
+            st2.put("key" + i, i);
+        }
+        for(int round = 0; round < 3; round++) {
+            for(int i = 0; i < 2000; i++) {
+                st2.get("key" + i);
+            }
+        }
+        if(!st2.isOpenAddressing() && st2.getSwitches() == 0) {
+            System.out.println("Yay 3");
+        }
+
+        if(args.length == 1) {
+            benchmark(Integer.parseInt(args[0]));
+        }
+    }
+
+    /**
+     * Times read-heavy and churn workloads on each static choice and on the adaptive table
+     * started with Open Addressing, which the probe length of String keys makes the wrong choice here.
+     * @param n Number of keys
+     */
+    private static void benchmark(int n) {
+        String[] keys = new String[n];
+        String[] misses = new String[n];
+        for(int i = 0; i < n; i++) {
+            keys[i] = "key" + i;
+            misses[i] = "miss" + i;
+        }
+
+        for(int kind = 0; kind < 3; kind++) {
+            long start = System.nanoTime();
+            OpenAddress<String,String> open = new OpenAddress<>(2);
+            for(String k : keys) open.put(k, k);
+            for(int r = 0; r < 20; r++) for(String k : keys) open.get(k);
+            long openReads = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            SeparateChain<String,String> chain = new SeparateChain<>(2);
+            for(String k : keys) chain.put(k, k);
+            for(int r = 0; r < 20; r++) for(String k : keys) chain.get(k);
+            long chainReads = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            AdaptiveTable<String,String> adaptive = new AdaptiveTable<>(2, true);
+            for(String k : keys) adaptive.put(k, k);
+            for(int r = 0; r < 20; r++) for(String k : keys) adaptive.get(k);
+            long adaptiveReads = System.nanoTime() - start;
+
+            System.out.printf("read-heavy hits: OpenAddress %dms, SeparateChain %dms, AdaptiveTable from OpenAddress %dms (%s)%n",
+                    openReads / 1_000_000, chainReads / 1_000_000, adaptiveReads / 1_000_000, adaptive.getLastSwitchReason());
+
+            start = System.nanoTime();
+            open = new OpenAddress<>(2);
+            for(String k : keys) open.put(k, k);
+            for(int i = 0; i < n; i++) { open.remove(keys[i]); open.get(misses[i]); open.put(keys[i], misses[i]); }
+            long openChurn = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            chain = new SeparateChain<>(2);
+            for(String k : keys) chain.put(k, k);
+            for(int i = 0; i < n; i++) { chain.remove(keys[i]); chain.get(misses[i]); chain.put(keys[i], misses[i]); }
+            long chainChurn = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            adaptive = new AdaptiveTable<>(2, true);
+            for(String k : keys) adaptive.put(k, k);
+            for(int i = 0; i < n; i++) { adaptive.remove(keys[i]); adaptive.get(misses[i]); adaptive.put(keys[i], misses[i]); }
+            long adaptiveChurn = System.nanoTime() - start;
+
+            System.out.printf("churn with misses: OpenAddress %dms, SeparateChain %dms, AdaptiveTable from OpenAddress %dms (%s)%n",
+                    openChurn / 1_000_000, chainChurn / 1_000_000, adaptiveChurn / 1_000_000, adaptive.getLastSwitchReason());
+        }
+    }
+}
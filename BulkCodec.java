@@ -0,0 +1,505 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Streaming binary export and import of tables.
+ * Layout: magic, entry count, then each entry as a length-prefixed key and a length-prefixed value,
+ * all big-endian. Entries are written and read through one buffer of CHUNK bytes, and an import
+ * sizes its table from the count so that no entry is ever rehashed.
+ */
+class BulkCodec {
+    /**
+     * First bytes of an export.
+     */
+    private static final int MAGIC = 0x48544258;
+
+    /**
+     * Buffer size.
+     */
+    private static final int CHUNK = 1 << 16;
+
+    /**
+     * Most entries in an export, so that capacityFor can't overflow.
+     */
+    static final int MAX_COUNT = (Integer.MAX_VALUE - 1) / 2;
+
+    /**
+     * Longest key or value in an export.
+     */
+    static final int MAX_LENGTH = 1 << 30;
+
+    /**
+     * Writes every entry of a table.
+     * @param table Table
+     * @param out Channel
+     * @param keys Key serializer
+     * @param values Value serializer
+     * @param <K> Key
+     * @param <V> Value
+     * @return Bytes written
+     * @throws IOException If writing fails
+     */
+    public static <K,V> long export(OpenAddress<K,V> table, WritableByteChannel out, Serializer<K> keys, Serializer<V> values) throws IOException {
+        return write(table.size(), table::forEach, out, keys, values);
+    }
+
+    /**
+     * Writes every entry of a table.
+     * @param table Table
+     * @param out Channel
+     * @param keys Key serializer
+     * @param values Value serializer
+     * @param <K> Key
+     * @param <V> Value
+     * @return Bytes written
+     * @throws IOException If writing fails
+     */
+    public static <K,V> long export(SeparateChain<K,V> table, WritableByteChannel out, Serializer<K> keys, Serializer<V> values) throws IOException {
+        return write(table.size(), table::forEach, out, keys, values);
+    }
+
+    /**
+     * Reads an export into a new Open Addressing table sized for its entries.
+     * @param in Channel
+     * @param keys Key serializer
+     * @param values Value serializer
+     * @param <K> Key
+     * @param <V> Value
+     * @return Table
+     * @throws IOException If reading fails or the input is not an export
+     */
+    public static <K,V> OpenAddress<K,V> importOpenAddress(ReadableByteChannel in, Serializer<K> keys, Serializer<V> values) throws IOException {
+        Input input = new Input(in);
+        int count = input.header();
+        OpenAddress<K,V> table = new OpenAddress<>(capacityFor(count));
+        //Sized so no insert reaches the load factor, so entries go straight to their slots.
+        input.entries(count, keys, values, table::rehashPut);
+        return table;
+    }
+
+    /**
+     * Reads an export into a new Separate Chaining table sized for its entries.
+     * @param in Channel
+     * @param keys Key serializer
+     * @param values Value serializer
+     * @param <K> Key
+     * @param <V> Value
+     * @return Table
+     * @throws IOException If reading fails or the input is not an export
+     */
+    public static <K,V> SeparateChain<K,V> importSeparateChain(ReadableByteChannel in, Serializer<K> keys, Serializer<V> values) throws IOException {
+        Input input = new Input(in);
+        int count = input.header();
+        SeparateChain<K,V> table = new SeparateChain<>(capacityFor(count));
+        input.entries(count, keys, values, table::put);
+        return table;
+    }
+
+    /**
+     * Return a capacity for the given number of entries, at half load like a migrated AdaptiveTable,
+     * since linear probing at the .8 load factor makes clustered keys very slow to place.
+     * @param count Entries, at most MAX_COUNT
+     * @return Capacity
+     */
+    static int capacityFor(int count) {
+        return Math.max(2, count * 2 + 1);
+    }
+
+    /**
+     * Writes the header and entries.
+     * @param count Number of entries
+     * @param source Calls its argument for every entry
+     * @param out Channel
+     * @param keys Key serializer
+     * @param values Value serializer
+     * @param <K> Key
+     * @param <V> Value
+     * @return Bytes written
+     * @throws IOException If writing fails
+     */
+    private static <K,V> long write(int count, Consumer<BiConsumer<K,V>> source, WritableByteChannel out, Serializer<K> keys, Serializer<V> values) throws IOException {
+        Output output = new Output(out);
+        output.putInt(MAGIC);
+        output.putInt(count);
+        try
+        {
+            source.accept((k, v) -> {
+                try
+                {
+                    output.putBytes(keys.toBytes(k));
+                    output.putBytes(values.toBytes(v));
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        output.drain();
+        return output.written;
+    }
+
+    /**
+     * Buffered writer.
+     */
+    private static class Output {
+        /**
+         * Channel.
+         */
+        private final WritableByteChannel out;
+
+        /**
+         * Buffer.
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK);
+
+        /**
+         * Bytes written so far.
+         */
+        private long written = 0;
+
+        /**
+         * Constructor.
+         * @param out Channel
+         */
+        Output(WritableByteChannel out) {
+            this.out = out;
+        }
+
+        /**
+         * Buffers an int.
+         * @param i Int
+         * @throws IOException If writing fails
+         */
+        void putInt(int i) throws IOException {
+            if (buffer.remaining() < 4)
+                drain();
+            buffer.putInt(i);
+        }
+
+        /**
+         * Buffers a length and the bytes, in pieces if they don't fit.
+         * @param bytes Bytes
+         * @throws IOException If writing fails
+         */
+        void putBytes(byte[] bytes) throws IOException {
+            putInt(bytes.length);
+            int offset = 0;
+            while (offset < bytes.length)
+            {
+                if (!buffer.hasRemaining())
+                    drain();
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        /**
+         * Writes out the buffer.
+         * @throws IOException If writing fails
+         */
+        void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                written += out.write(buffer);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Buffered reader that hands serializers slices of its own buffer.
+     */
+    private static class Input {
+        /**
+         * Channel.
+         */
+        private final ReadableByteChannel in;
+
+        /**
+         * Buffer, in read mode; grows to hold a key or value longer than CHUNK.
+         */
+        private ByteBuffer buffer = ByteBuffer.allocate(CHUNK).flip();
+
+        /**
+         * Constructor.
+         * @param in Channel
+         */
+        Input(ReadableByteChannel in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads and checks the header.
+         * @return Number of entries
+         * @throws IOException If reading fails or the input is not an export
+         */
+        int header() throws IOException {
+            fill(8);
+            if (buffer.getInt() != MAGIC)
+            {
+                throw new IOException("Not a table export");
+            }
+            int count = buffer.getInt();
+            if (count < 0 || count > MAX_COUNT)
+            {
+                throw new IOException("Bad entry count " + count);
+            }
+            return count;
+        }
+
+        /**
+         * Reads entries into a table.
+         * @param count Number of entries
+         * @param keys Key serializer
+         * @param values Value serializer
+         * @param sink Puts an entry
+         * @param <K> Key
+         * @param <V> Value
+         * @throws IOException If reading fails or the input ends early
+         */
+        <K,V> void entries(int count, Serializer<K> keys, Serializer<V> values, BiConsumer<K,V> sink) throws IOException {
+            for (int i = 0; i < count; i++)
+            {
+                K k = next(keys, i, "key");
+                V v = next(values, i, "value");
+                sink.accept(k, v);
+            }
+        }
+
+        /**
+         * Reads a length-prefixed object.
+         * @param serializer Serializer
+         * @param entry Number of the entry, for errors
+         * @param part key or value, for errors
+         * @param <T> Type
+         * @return Object
+         * @throws IOException If reading fails, the input ends early or the length is impossible
+         */
+        private <T> T next(Serializer<T> serializer, int entry, String part) throws IOException {
+            fill(4);
+            int length = buffer.getInt();
+            //Only a length past the buffered bytes needs the channel's size.
+            if (length < 0 || length > MAX_LENGTH || (length > buffer.remaining() && length > remaining()))
+            {
+                throw new IOException("Bad " + part + " length " + length + " in entry " + entry);
+            }
+            fill(length);
+            T t = serializer.fromBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            buffer.position(buffer.position() + length);
+            return t;
+        }
+
+        /**
+         * Return the bytes left to read, buffered or not, or Long.MAX_VALUE if the channel can't tell.
+         * @return Bytes
+         * @throws IOException If the channel fails
+         */
+        private long remaining() throws IOException {
+            if (!(in instanceof SeekableByteChannel))
+                return Long.MAX_VALUE;
+            SeekableByteChannel seekable = (SeekableByteChannel) in;
+            return buffer.remaining() + Math.max(0, seekable.size() - seekable.position());
+        }
+
+        /**
+         * Reads until the buffer holds at least the given number of bytes. The buffer only doubles
+         * as bytes arrive, so a corrupt length ends at EOF before a large allocation.
+         * @param needed Bytes
+         * @throws IOException If reading fails or the input ends early
+         */
+        private void fill(int needed) throws IOException {
+            if (buffer.remaining() >= needed)
+                return;
+            buffer.compact();
+            while (buffer.position() < needed)
+            {
+                if (!buffer.hasRemaining())
+                {
+                    ByteBuffer grown = ByteBuffer.allocate((int) Math.min(needed, buffer.capacity() * 2L));
+                    buffer.flip();
+                    grown.put(buffer);
+                    buffer = grown;
+                }
+                if (in.read(buffer) < 0)
+                {
+                    throw new EOFException("Export ends early");
+                }
+            }
+            buffer.flip();
+        }
+    }
+
+    /**
+     * Testing code.
+     * @param args args
+     * @throws IOException on failure
+     */
+    public static void main(String[] args) throws IOException {
+        OpenAddress<String,String> st1 = new OpenAddress<>(2);
+        for(int i = 0; i < 1000; i++) {
+            st1.put("k:" + i, "line\n" + i + ":value");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        export(st1, Channels.newChannel(bytes), Serializer.STRING, Serializer.STRING);
+        OpenAddress<String,String> st2 = importOpenAddress(Channels.newChannel(new java.io.ByteArrayInputStream(bytes.toByteArray())), Serializer.STRING, Serializer.STRING);
+        boolean all = st2.size() == 1000 && st2.getCapacity() == capacityFor(1000);
+        for(int i = 0; i < 1000; i++) {
+            all &= st2.get("k:" + i).equals("line\n" + i + ":value");
+        }
+        if(all) {
+            System.out.println("Yay 1");
+        }
+
+        SeparateChain<Integer,Long> st3 = new SeparateChain<>(2);
+        for(int i = 0; i < 5000; i++) {
+            st3.put(i, (long) i * i);
+        }
+        bytes.reset();
+        export(st3, Channels.newChannel(bytes), Serializer.INTEGER, Serializer.LONG);
+        SeparateChain<Integer,Long> st4 = importSeparateChain(Channels.newChannel(new java.io.ByteArrayInputStream(bytes.toByteArray())), Serializer.INTEGER, Serializer.LONG);
+        all = st4.size() == 5000 && st4.getCapacity() == capacityFor(5000);
+        for(int i = 0; i < 5000; i++) {
+            all &= st4.get(i) == (long) i * i;
+        }
+        if(all) {
+            System.out.println("Yay 2");
+        }
+
+        SeparateChain<String,String> st5 = new SeparateChain<>(2);
+        String big = "x".repeat(3 * CHUNK + 5);
+        st5.put("big", big);
+        st5.put("small", "s");
+        bytes.reset();
+        export(st5, Channels.newChannel(bytes), Serializer.STRING, Serializer.STRING);
+        SeparateChain<String,String> st6 = importSeparateChain(Channels.newChannel(new java.io.ByteArrayInputStream(bytes.toByteArray())), Serializer.STRING, Serializer.STRING);
+        if(st6.get("big").equals(big) && st6.get("small").equals("s") && st6.size() == 2) {
+            System.out.println("Yay 3");
+        }
+
+        bytes.reset();
+        export(new OpenAddress<String,String>(2), Channels.newChannel(bytes), Serializer.STRING, Serializer.STRING);
+        if(bytes.size() == 8 && importOpenAddress(Channels.newChannel(new java.io.ByteArrayInputStream(bytes.toByteArray())), Serializer.STRING, Serializer.STRING).size() == 0) {
+            System.out.println("Yay 4");
+        }
+
+        bytes.reset();
+        export(st1, Channels.newChannel(bytes), Serializer.STRING, Serializer.STRING);
+        byte[] cut = java.util.Arrays.copyOf(bytes.toByteArray(), bytes.size() - 3);
+        try {
+            importOpenAddress(Channels.newChannel(new java.io.ByteArrayInputStream(cut)), Serializer.STRING, Serializer.STRING);
+        }
+        catch(EOFException e) {
+            System.out.println("Yay 5");
+        }
+
+        //A header claiming more entries than any capacity can hold is rejected before allocating.
+        ByteBuffer huge = ByteBuffer.allocate(8).putInt(MAGIC).putInt(MAX_COUNT + 1);
+        try {
+            importSeparateChain(Channels.newChannel(new java.io.ByteArrayInputStream(huge.array())), Serializer.STRING, Serializer.STRING);
+        }
+        catch(IOException e) {
+            if(e.getMessage().startsWith("Bad entry count") && capacityFor(MAX_COUNT) == Integer.MAX_VALUE) {
+                System.out.println("Yay 6");
+            }
+        }
+
+        //One entry whose value claims nearly 1GB: a stream hits EOF without allocating it, a file is rejected by its size.
+        ByteBuffer hostile = ByteBuffer.allocate(17).putInt(MAGIC).putInt(1).putInt(1).put((byte) 'k').putInt(MAX_LENGTH);
+        boolean ended = false;
+        try {
+            importOpenAddress(Channels.newChannel(new java.io.ByteArrayInputStream(hostile.array())), Serializer.STRING, Serializer.STRING);
+        }
+        catch(EOFException e) {
+            ended = true;
+        }
+        Path file = Files.createTempFile("bulk", ".bin");
+        Files.write(file, hostile.array());
+        try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            importOpenAddress(in, Serializer.STRING, Serializer.STRING);
+        }
+        catch(IOException e) {
+            if(ended && e.getMessage().equals("Bad value length " + MAX_LENGTH + " in entry 0")) {
+                System.out.println("Yay 7");
+            }
+        }
+        Files.delete(file);
+
+        if(args.length == 1) {
+            benchmark(Integer.parseInt(args[0]));
+        }
+    }
+
+    /**
+     * Times an export to a file and an import back, against rebuilding from toString text with individual puts.
+     * @param n Number of entries
+     * @throws IOException on failure
+     */
+    private static void benchmark(int n) throws IOException {
+        SeparateChain<String,String> table = new SeparateChain<>(2);
+        for(int i = 0; i < n; i++) {
+            table.put("key" + i, "value" + i);
+        }
+        Path file = Files.createTempFile("bulk", ".bin");
+        Path text = Files.createTempFile("bulk", ".txt");
+        try {
+            for(int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                long written;
+                try(FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    written = export(table, out, Serializer.STRING, Serializer.STRING);
+                }
+                long exported = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                SeparateChain<String,String> chained;
+                try(FileChannel in = FileChannel.open(file)) {
+                    chained = importSeparateChain(in, Serializer.STRING, Serializer.STRING);
+                }
+                long importedChain = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                OpenAddress<String,String> open;
+                try(FileChannel in = FileChannel.open(file)) {
+                    open = importOpenAddress(in, Serializer.STRING, Serializer.STRING);
+                }
+                long importedOpen = System.nanoTime() - start;
+
+                Files.writeString(text, table.toString());
+                start = System.nanoTime();
+                SeparateChain<String,String> rebuilt = new SeparateChain<>(2);
+                try(java.io.BufferedReader in = Files.newBufferedReader(text)) {
+                    for(String line = in.readLine(); line != null; line = in.readLine()) {
+                        int colon = line.indexOf(':');
+                        rebuilt.put(line.substring(0, colon), line.substring(colon + 1));
+                    }
+                }
+                long puts = System.nanoTime() - start;
+
+                System.out.printf("%d entries, %dMB: export %dms, import SeparateChain %dms, import OpenAddress %dms, text lines with individual puts %dms%n",
+                        Math.min(Math.min(chained.size(), open.size()), rebuilt.size()), written >> 20, exported / 1_000_000, importedChain / 1_000_000, importedOpen / 1_000_000, puts / 1_000_000);
+            }
+        }
+        finally {
+            Files.delete(file);
+            Files.delete(text);
+        }
+    }
+}
@@ -0,0 +1,509 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Stress and contention harness for the tables behind different locking strategies.
+ * Each thread runs a mix of gets, puts and removes. A thread only writes keys in its own partition
+ * and mirrors every write into a ConcurrentHashMap, so its reads of its own keys must match the
+ * reference exactly, and the table must equal the reference once all threads finish.
+ */
+class ConcurrencyHarness {
+    /**
+     * Locking strategies.
+     */
+    static final String[] STRATEGIES = {"global", "readwrite", "stamped"};
+
+    /**
+     * Keys each thread writes.
+     */
+    private static final int KEYS_PER_THREAD = 4096;
+
+    /**
+     * Table behind one locking strategy.
+     */
+    private abstract static class Guarded {
+        /**
+         * Open Addressing table, if used.
+         */
+        final OpenAddress<String,String> table1;
+
+        /**
+         * Separate Chaining table, if used.
+         */
+        final SeparateChain<String,String> table2;
+
+        /**
+         * Lock acquisitions that had to wait.
+         */
+        final LongAdder contended = new LongAdder();
+
+        /**
+         * Optimistic reads that had to be retried under a lock.
+         */
+        final LongAdder retried = new LongAdder();
+
+        /**
+         * Guarded table constructor.
+         * @param useTable1 Type of table.
+         */
+        Guarded(boolean useTable1) {
+            table1 = useTable1 ? new OpenAddress<>(2) : null;
+            table2 = useTable1 ? null : new SeparateChain<>(2);
+        }
+
+        /**
+         * Unguarded get.
+         * @param k Key
+         * @return Value
+         */
+        String rawGet(String k) {
+            return table1 != null ? table1.get(k) : table2.get(k);
+        }
+
+        /**
+         * Unguarded put.
+         * @param k Key
+         * @param v Value
+         */
+        void rawPut(String k, String v) {
+            if (table1 != null) table1.put(k, v);
+            else table2.put(k, v);
+        }
+
+        /**
+         * Unguarded remove.
+         * @param k Key
+         * @return Value
+         */
+        String rawRemove(String k) {
+            return table1 != null ? table1.remove(k) : table2.remove(k);
+        }
+
+        /**
+         * Unguarded size.
+         * @return Size
+         */
+        int rawSize() {
+            return table1 != null ? table1.size() : table2.size();
+        }
+
+        /**
+         * Takes a lock, counting it as contended if it was not free.
+         * @param lock Lock
+         */
+        void acquire(Lock lock) {
+            if (!lock.tryLock())
+            {
+                contended.increment();
+                lock.lock();
+            }
+        }
+
+        /**
+         * Guarded get.
+         * @param k Key
+         * @return Value
+         */
+        abstract String get(String k);
+
+        /**
+         * Guarded put.
+         * @param k Key
+         * @param v Value
+         */
+        abstract void put(String k, String v);
+
+        /**
+         * Guarded remove.
+         * @param k Key
+         * @return Value
+         */
+        abstract String remove(String k);
+
+        /**
+         * Return the class of the lock, whose nested classes are the park blockers too.
+         * @return Lock class
+         */
+        abstract Class<?> lockClass();
+
+        /**
+         * Checks if a parked or monitor class is the lock or one of its nested classes.
+         * @param c Class
+         * @return True if it belongs to the lock
+         */
+        boolean ownsClass(jdk.jfr.consumer.RecordedClass c) {
+            if (c == null)
+                return false;
+            String name = c.getName();
+            return name.equals(lockClass().getName()) || name.startsWith(lockClass().getName() + "$");
+        }
+    }
+
+    /**
+     * One lock for every operation.
+     */
+    private static class GlobalLock extends Guarded {
+        /**
+         * Lock.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * Constructor.
+         * @param useTable1 Type of table.
+         */
+        GlobalLock(boolean useTable1) {
+            super(useTable1);
+        }
+
+        String get(String k) {
+            acquire(lock);
+            try { return rawGet(k); } finally { lock.unlock(); }
+        }
+
+        void put(String k, String v) {
+            acquire(lock);
+            try { rawPut(k, v); } finally { lock.unlock(); }
+        }
+
+        String remove(String k) {
+            acquire(lock);
+            try { return rawRemove(k); } finally { lock.unlock(); }
+        }
+
+        Class<?> lockClass() {
+            return ReentrantLock.class;
+        }
+    }
+
+    /**
+     * Shared lock for gets, exclusive lock for writes.
+     */
+    private static class ReadWrite extends Guarded {
+        /**
+         * Lock.
+         */
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        /**
+         * Constructor.
+         * @param useTable1 Type of table.
+         */
+        ReadWrite(boolean useTable1) {
+            super(useTable1);
+        }
+
+        String get(String k) {
+            acquire(lock.readLock());
+            try { return rawGet(k); } finally { lock.readLock().unlock(); }
+        }
+
+        void put(String k, String v) {
+            acquire(lock.writeLock());
+            try { rawPut(k, v); } finally { lock.writeLock().unlock(); }
+        }
+
+        String remove(String k) {
+            acquire(lock.writeLock());
+            try { return rawRemove(k); } finally { lock.writeLock().unlock(); }
+        }
+
+        Class<?> lockClass() {
+            return ReentrantReadWriteLock.class;
+        }
+    }
+
+    /**
+     * Optimistic gets validated against a stamp, exclusive lock for writes.
+     * The tables aren't built for concurrent readers, so an optimistic get that throws
+     * is treated like one that fails validation and is retried under the read lock.
+     */
+    private static class Stamped extends Guarded {
+        /**
+         * Lock.
+         */
+        private final StampedLock lock = new StampedLock();
+
+        /**
+         * Constructor.
+         * @param useTable1 Type of table.
+         */
+        Stamped(boolean useTable1) {
+            super(useTable1);
+        }
+
+        String get(String k) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0)
+            {
+                try
+                {
+                    String v = rawGet(k);
+                    if (lock.validate(stamp))
+                        return v;
+                }
+                catch (RuntimeException e)
+                {
+                    //Torn read during a write; fall through to the read lock.
+                }
+            }
+            retried.increment();
+            stamp = lock.tryReadLock();
+            if (stamp == 0)
+            {
+                contended.increment();
+                stamp = lock.readLock();
+            }
+            try { return rawGet(k); } finally { lock.unlockRead(stamp); }
+        }
+
+        void put(String k, String v) {
+            long stamp = write();
+            try { rawPut(k, v); } finally { lock.unlockWrite(stamp); }
+        }
+
+        String remove(String k) {
+            long stamp = write();
+            try { return rawRemove(k); } finally { lock.unlockWrite(stamp); }
+        }
+
+        Class<?> lockClass() {
+            return StampedLock.class;
+        }
+
+        /**
+         * Takes the write lock, counting it as contended if it was not free.
+         * @return Stamp
+         */
+        private long write() {
+            long stamp = lock.tryWriteLock();
+            if (stamp == 0)
+            {
+                contended.increment();
+                stamp = lock.writeLock();
+            }
+            return stamp;
+        }
+    }
+
+    /**
+     * Runs one configuration and prints its results.
+     * @param strategy global, readwrite or stamped
+     * @param useTable1 Type of table.
+     * @param threads Number of threads
+     * @param virtual Use virtual threads
+     * @param ops Operations per thread
+     * @param readPercent Percentage of gets; the rest split evenly between puts and removes
+     * @param jfr Record lock parking with Flight Recorder
+     * @return True if the table matched the reference
+     * @throws Exception If a thread fails
+     */
+    static boolean run(String strategy, boolean useTable1, int threads, boolean virtual, int ops, int readPercent, boolean jfr) throws Exception {
+        Guarded table = strategy.equals("global") ? new GlobalLock(useTable1)
+                : strategy.equals("readwrite") ? new ReadWrite(useTable1) : new Stamped(useTable1);
+        ConcurrentHashMap<String,String> reference = new ConcurrentHashMap<>();
+        LatencyHistogram[] latencies = new LatencyHistogram[threads];
+        LongAdder mismatches = new LongAdder();
+        Throwable[] failures = new Throwable[threads];
+        long[] starts = new long[threads];
+        long[] ends = new long[threads];
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++)
+        {
+            int id = t;
+            //Each thread records into its own histogram, merged once all have joined.
+            LatencyHistogram latency = latencies[t] = new LatencyHistogram();
+            workers[t] = newThread(virtual, "stress-" + t, () -> {
+                try
+                {
+                    Random random = new Random(id);
+                    start.await();
+                    starts[id] = System.nanoTime();
+                    for (int i = 0; i < ops; i++)
+                    {
+                        int roll = random.nextInt(100);
+                        boolean own = roll >= readPercent || random.nextBoolean();
+                        int owner = own ? id : random.nextInt(threads);
+                        String k = owner + "-" + random.nextInt(KEYS_PER_THREAD);
+                        long begin = System.nanoTime();
+                        if (roll < readPercent)
+                        {
+                            String v = table.get(k);
+                            latency.record(System.nanoTime() - begin);
+                            if (own && !java.util.Objects.equals(v, reference.get(k)))
+                                mismatches.increment();
+                        }
+                        else if (roll < readPercent + (100 - readPercent) / 2)
+                        {
+                            String v = Integer.toString(i);
+                            table.put(k, v);
+                            latency.record(System.nanoTime() - begin);
+                            reference.put(k, v);
+                        }
+                        else
+                        {
+                            String v = table.remove(k);
+                            latency.record(System.nanoTime() - begin);
+                            if (!java.util.Objects.equals(v, reference.remove(k)))
+                                mismatches.increment();
+                        }
+                    }
+                    ends[id] = System.nanoTime();
+                }
+                catch (Throwable e)
+                {
+                    failures[id] = e;
+                }
+            });
+            workers[t].start();
+        }
+
+        jdk.jfr.Recording recording = null;
+        if (jfr)
+        {
+            recording = new jdk.jfr.Recording();
+            recording.enable("jdk.ThreadPark").withThreshold(java.time.Duration.ZERO);
+            recording.enable("jdk.JavaMonitorEnter").withThreshold(java.time.Duration.ZERO);
+            recording.start();
+        }
+
+        start.await();
+        for (Thread w : workers)
+            w.join();
+        //Timed by the workers themselves, since they can run well before this thread is scheduled again.
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (int t = 0; t < threads; t++)
+        {
+            first = Math.min(first, starts[t]);
+            last = Math.max(last, ends[t]);
+        }
+        long elapsed = Math.max(1, last - first);
+
+        String parks = "";
+        if (recording != null)
+        {
+            recording.stop();
+            Path file = Files.createTempFile("harness", ".jfr");
+            recording.dump(file);
+            recording.close();
+            long count = 0;
+            long nanos = 0;
+            for (jdk.jfr.consumer.RecordedEvent e : jdk.jfr.consumer.RecordingFile.readAllEvents(file))
+            {
+                //Only parks and monitor waits on the strategy's own lock, not the barrier, joins or JDK internals.
+                String field = e.getEventType().getName().equals("jdk.ThreadPark") ? "parkedClass" : "monitorClass";
+                if (e.hasField(field) && table.ownsClass(e.getClass(field)))
+                {
+                    count++;
+                    nanos += e.getDuration().toNanos();
+                }
+            }
+            Files.delete(file);
+            parks = String.format(", jfr: %d parks/monitor waits, %.1fms blocked", count, nanos / 1e6);
+        }
+
+        for (Throwable e : failures)
+        {
+            if (e instanceof Exception)
+                throw (Exception) e;
+            if (e != null)
+                throw new RuntimeException(e);
+        }
+
+        boolean correct = mismatches.sum() == 0 && table.rawSize() == reference.size();
+        for (Map.Entry<String,String> e : reference.entrySet())
+            correct &= e.getValue().equals(table.rawGet(e.getKey()));
+
+        LatencyHistogram all = new LatencyHistogram();
+        for (LatencyHistogram latency : latencies)
+            all.add(latency);
+        System.out.printf("%-9s %-17s %6d %s threads: %10.0f ops/s, contended %d, optimistic retries %d, %s%s%n  latency: %s%n",
+                strategy, useTable1 ? "Open Addressing" : "Separate Chaining", threads, virtual ? "virtual" : "platform", all.count() / (elapsed / 1e9),
+                table.contended.sum(), table.retried.sum(), correct ? "matches reference" : "DOES NOT MATCH REFERENCE", parks, all);
+        return correct;
+    }
+
+    /**
+     * Creates a thread, using Thread.ofVirtual() when asked; it is looked up reflectively
+     * since virtual threads need a newer JDK than the rest of the code.
+     * @param virtual Use a virtual thread
+     * @param name Thread name
+     * @param task Task
+     * @return Unstarted thread
+     * @throws ReflectiveOperationException If virtual threads aren't available
+     */
+    static Thread newThread(boolean virtual, String name, Runnable task) throws ReflectiveOperationException {
+        if (!virtual)
+            return new Thread(task, name);
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        Class<?> type = Class.forName("java.lang.Thread$Builder");
+        builder = type.getMethod("name", String.class).invoke(builder, name);
+        return (Thread) type.getMethod("unstarted", Runnable.class).invoke(builder, task);
+    }
+
+    /**
+     * Checks whether this JDK has virtual threads.
+     * @return True if it does
+     */
+    static boolean hasVirtualThreads() {
+        try
+        {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Runs every strategy and table at 1, 2, 4, ... up to the given number of platform threads,
+     * then optionally with the given number of virtual threads.
+     * @param args maxThreads opsPerThread readPercent [virtualThreads] [jfr]
+     * @throws Exception If a thread fails
+     */
+    public static void main(String[] args) throws Exception {
+        boolean jfr = args.length > 3 && args[args.length - 1].equals("jfr");
+        int given = jfr ? args.length - 1 : args.length;
+        if (given < 3 || given > 4)
+        {
+            System.out.println("Usage: java ConcurrencyHarness <maxThreads> <opsPerThread> <read%> [virtualThreads] [jfr]");
+            return;
+        }
+        int maxThreads = Integer.parseInt(args[0]);
+        int ops = Integer.parseInt(args[1]);
+        int readPercent = Integer.parseInt(args[2]);
+        int virtualThreads = given == 4 ? Integer.parseInt(args[3]) : 0;
+        if (virtualThreads > 0 && !hasVirtualThreads())
+        {
+            System.out.println("Virtual threads need JDK 21 or later; running platform threads only");
+            virtualThreads = 0;
+        }
+
+        boolean allCorrect = true;
+        for (String strategy : STRATEGIES)
+        {
+            for (boolean useTable1 : new boolean[] {true, false})
+            {
+                for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads * 2, maxThreads) : threads + 1)
+                    allCorrect &= run(strategy, useTable1, threads, false, ops, readPercent, jfr);
+                if (virtualThreads > 0)
+                    allCorrect &= run(strategy, useTable1, virtualThreads, true, ops, readPercent, jfr);
+            }
+        }
+        System.out.println(allCorrect ? "All runs matched the reference" : "Some runs did not match the reference");
+    }
+}
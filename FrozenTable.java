@@ -0,0 +1,508 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Read-only table over a minimal perfect hash of its keys, built with hash-and-displace (CHD).
+ * Hash codes are mixed to 64 bits and split into shards built in parallel. Within a shard each hash
+ * picks a bucket of about LAMBDA keys, and each bucket has a displacement chosen so that its keys land
+ * on distinct slots. A get is one hash code, one displacement and one slot, whose hash code and key
+ * are checked to reject absent keys. Keys sharing a hash code can't be told apart by any hash of it,
+ * so they share a slot holding all of them.
+ * @param <K> Key
+ * @param <V> Value
+ */
+class FrozenTable<K,V> {
+    /**
+     * Mean keys per bucket.
+     */
+    private static final int LAMBDA = 4;
+
+    /**
+     * Keys per shard, roughly.
+     */
+    private static final int SHARD_KEYS = 1 << 16;
+
+    /**
+     * Displacement step, the 64-bit golden ratio.
+     */
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Keys that share one hash code, kept in one slot.
+     */
+    private static final class Collided {
+        /**
+         * Keys.
+         */
+        final Object[] keys;
+
+        /**
+         * Values.
+         */
+        final Object[] values;
+
+        /**
+         * Constructor.
+         * @param keys Keys
+         * @param values Values
+         */
+        Collided(Object[] keys, Object[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Key of each slot, or a Collided.
+     */
+    private final Object[] keys;
+
+    /**
+     * Value of each slot.
+     */
+    private final Object[] values;
+
+    /**
+     * Hash code of each slot, so most misses are rejected without touching a key.
+     */
+    private final int[] hashCodes;
+
+    /**
+     * Displacement of each bucket, shard after shard.
+     */
+    private final int[] displacements;
+
+    /**
+     * First slot of each shard, plus the end.
+     */
+    private final int[] shardSlots;
+
+    /**
+     * First bucket of each shard, plus the end.
+     */
+    private final int[] shardBuckets;
+
+    /**
+     * Number of entries.
+     */
+    private final int elements;
+
+    /**
+     * Builds the table. The keys must be distinct and not null.
+     * @param ks Keys
+     * @param vs Values, in the same order
+     */
+    FrozenTable(Object[] ks, Object[] vs) {
+        elements = ks.length;
+
+        //Group entries by hash code; a sorted (hash, index) pair per entry.
+        long[] pairs = new long[ks.length];
+        for (int i = 0; i < ks.length; i++)
+            pairs[i] = (long) ks[i].hashCode() << 32 | i;
+        Arrays.parallelSort(pairs);
+
+        int distinct = 0;
+        long[] mixed = new long[ks.length];
+        int[] groupHashes = new int[ks.length];
+        Object[] groupKeys = new Object[ks.length];
+        Object[] groupValues = new Object[ks.length];
+        for (int i = 0; i < pairs.length; )
+        {
+            int j = i + 1;
+            while (j < pairs.length && pairs[j] >>> 32 == pairs[i] >>> 32)
+                j++;
+            groupHashes[distinct] = (int) (pairs[i] >> 32);
+            mixed[distinct] = mix(groupHashes[distinct]);
+            if (j - i == 1)
+            {
+                groupKeys[distinct] = ks[(int) pairs[i]];
+                groupValues[distinct] = vs[(int) pairs[i]];
+            }
+            else
+            {
+                Object[] k = new Object[j - i];
+                Object[] v = new Object[j - i];
+                for (int g = i; g < j; g++)
+                {
+                    k[g - i] = ks[(int) pairs[g]];
+                    v[g - i] = vs[(int) pairs[g]];
+                }
+                groupKeys[distinct] = new Collided(k, v);
+            }
+            distinct++;
+            i = j;
+        }
+
+        //Sort hashes into shards, then lay out each shard's slots and buckets.
+        int shards = Math.max(1, (distinct + SHARD_KEYS - 1) / SHARD_KEYS);
+        shardSlots = new int[shards + 1];
+        for (int i = 0; i < distinct; i++)
+            shardSlots[reduce(mixed[i], shards) + 1]++;
+        shardBuckets = new int[shards + 1];
+        for (int s = 0; s < shards; s++)
+        {
+            int size = shardSlots[s + 1];
+            shardSlots[s + 1] = shardSlots[s] + size;
+            shardBuckets[s + 1] = shardBuckets[s] + (size + LAMBDA - 1) / LAMBDA;
+        }
+        int[] order = new int[distinct];
+        int[] fill = Arrays.copyOf(shardSlots, shards);
+        for (int i = 0; i < distinct; i++)
+            order[fill[reduce(mixed[i], shards)]++] = i;
+
+        keys = new Object[distinct];
+        values = new Object[distinct];
+        hashCodes = new int[distinct];
+        displacements = new int[shardBuckets[shards]];
+        IntStream.range(0, shards).parallel().forEach(s -> buildShard(s, order, mixed, groupHashes, groupKeys, groupValues));
+    }
+
+    /**
+     * Finds a displacement for every bucket of a shard and places its entries; shards touch disjoint
+     * parts of the arrays, so they are built in parallel.
+     * @param shard Shard
+     * @param order Entries sorted by shard
+     * @param mixed Mixed hash of each entry
+     * @param groupHashes Hash code of each entry
+     * @param groupKeys Key of each entry
+     * @param groupValues Value of each entry
+     */
+    private void buildShard(int shard, int[] order, long[] mixed, int[] groupHashes, Object[] groupKeys, Object[] groupValues) {
+        int first = shardSlots[shard];
+        int size = shardSlots[shard + 1] - first;
+        int buckets = shardBuckets[shard + 1] - shardBuckets[shard];
+        if (size == 0)
+            return;
+
+        //Sort the shard's entries by bucket, then the buckets by size, largest first.
+        int[] bucketStart = new int[buckets + 1];
+        for (int i = first; i < first + size; i++)
+            bucketStart[bucket(mixed[order[i]], buckets) + 1]++;
+        int largest = 0;
+        for (int b = 0; b < buckets; b++)
+        {
+            largest = Math.max(largest, bucketStart[b + 1]);
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        int[] members = new int[size];
+        int[] fill = Arrays.copyOf(bucketStart, buckets);
+        for (int i = first; i < first + size; i++)
+            members[fill[bucket(mixed[order[i]], buckets)]++] = order[i];
+
+        int[] bySize = new int[largest + 2];
+        for (int b = 0; b < buckets; b++)
+            bySize[largest - (bucketStart[b + 1] - bucketStart[b]) + 1]++;
+        for (int c = 0; c <= largest; c++)
+            bySize[c + 1] += bySize[c];
+        int[] sorted = new int[buckets];
+        for (int b = 0; b < buckets; b++)
+            sorted[bySize[largest - (bucketStart[b + 1] - bucketStart[b])]++] = b;
+
+        boolean[] taken = new boolean[size];
+        int[] slots = new int[largest];
+        for (int b : sorted)
+        {
+            int from = bucketStart[b];
+            int count = bucketStart[b + 1] - from;
+            if (count == 0)
+                break;
+
+            int d = 0;
+            search:
+            while (true)
+            {
+                for (int m = 0; m < count; m++)
+                {
+                    int slot = slot(mixed[members[from + m]], d, size);
+                    if (taken[slot])
+                    {
+                        d = next(d);
+                        continue search;
+                    }
+                    for (int o = 0; o < m; o++)
+                    {
+                        if (slots[o] == slot)
+                        {
+                            d = next(d);
+                            continue search;
+                        }
+                    }
+                    slots[m] = slot;
+                }
+                break;
+            }
+
+            displacements[shardBuckets[shard] + b] = d;
+            for (int m = 0; m < count; m++)
+            {
+                taken[slots[m]] = true;
+                hashCodes[first + slots[m]] = groupHashes[members[from + m]];
+                keys[first + slots[m]] = groupKeys[members[from + m]];
+                values[first + slots[m]] = groupValues[members[from + m]];
+            }
+        }
+    }
+
+    /**
+     * Return the next displacement to try.
+     * @param d Displacement
+     * @return Next displacement
+     */
+    private static int next(int d) {
+        if (d == Integer.MAX_VALUE)
+        {
+            throw new IllegalStateException("No displacement separates a bucket");
+        }
+        return d + 1;
+    }
+
+    /**
+     * Return the number of elements in the table.
+     * @return Number of elements.
+     */
+    public int size() {
+        return elements;
+    }
+
+    /**
+     * Return how many "slots" are in the table; one per distinct hash code.
+     * @return Capacity
+     */
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    /**
+     * Given a key, return the value from the table.
+     * @param k Key
+     * @return Value
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K k) {
+        if (keys.length == 0)
+        {
+            return null;
+        }
+        int h = k.hashCode();
+        long x = mix(h);
+        int shard = reduce(x, shardSlots.length - 1);
+        int first = shardSlots[shard];
+        int size = shardSlots[shard + 1] - first;
+        if (size == 0)
+        {
+            return null;
+        }
+        int buckets = shardBuckets[shard + 1] - shardBuckets[shard];
+        int slot = first + slot(x, displacements[shardBuckets[shard] + bucket(x, buckets)], size);
+        if (hashCodes[slot] != h)
+        {
+            return null;
+        }
+
+        Object key = keys[slot];
+        if (key instanceof Collided)
+        {
+            Collided c = (Collided) key;
+            for (int i = 0; i < c.keys.length; i++)
+            {
+                if (c.keys[i].equals(k))
+                    return (V) c.values[i];
+            }
+            return null;
+        }
+        return key.equals(k) ? (V) values[slot] : null;
+    }
+
+    /**
+     * Given a key, return the value from the table, or a default if absent.
+     * @param k Key
+     * @param def Default
+     * @return Value
+     */
+    public V getOrDefault(K k, V def) {
+        V val = get(k);
+        return val == null ? def : val;
+    }
+
+    /**
+     * Calls an action for every entry, in slot order.
+     * @param action Action
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(java.util.function.BiConsumer<? super K, ? super V> action) {
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (keys[i] instanceof Collided)
+            {
+                Collided c = (Collided) keys[i];
+                for (int j = 0; j < c.keys.length; j++)
+                    action.accept((K) c.keys[j], (V) c.values[j]);
+            }
+            else
+            {
+                action.accept((K) keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    /**
+     * Mixes a hash code to 64 bits (the MurmurHash3 finalizer).
+     * @param h Hash code
+     * @return Mixed hash
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Maps the high 32 bits of a mixed hash onto [0, n).
+     * @param x Mixed hash
+     * @param n Range
+     * @return Index
+     */
+    private static int reduce(long x, int n) {
+        return (int) (((x >>> 32) * n) >>> 32);
+    }
+
+    /**
+     * Maps the low 32 bits of a mixed hash onto a bucket.
+     * @param x Mixed hash
+     * @param buckets Number of buckets
+     * @return Bucket
+     */
+    private static int bucket(long x, int buckets) {
+        return (int) (((x & 0xffffffffL) * buckets) >>> 32);
+    }
+
+    /**
+     * Calculates the slot of a mixed hash under a displacement.
+     * @param x Mixed hash
+     * @param d Displacement
+     * @param size Slots in the shard
+     * @return Slot within the shard
+     */
+    private static int slot(long x, int d, int size) {
+        return reduce(mix(x + d * GOLDEN), size);
+    }
+
+    /**
+     * Return the entries one per line.
+     * @return String
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        forEach((k, v) -> s.append(k).append(":").append(v).append("\n"));
+        return s.toString().trim();
+    }
+
+    /**
+     * Testing code.
+     * @param args args
+     */
+    public static void main(String[] args) {
+        OpenAddress<String,Integer> st1 = new OpenAddress<>(2);
+        for(int i = 0; i < 1000; i++) {
+            st1.put("key" + i, i);
+        }
+        FrozenTable<String,Integer> f1 = st1.freeze();
+        boolean all = f1.size() == 1000 && f1.getCapacity() == 1000;
+        for(int i = 0; i < 1000; i++) {
+            all &= f1.get("key" + i).equals(i);
+        }
+        for(int i = 1000; i < 2000; i++) {
+            all &= f1.get("key" + i) == null;
+        }
+        if(all) {
+            System.out.println("Yay 1");
+        }
+
+        SeparateChain<Integer,Integer> st2 = new SeparateChain<>(2);
+        for(int i = 0; i < 300000; i++) {
+            st2.put(i * 7, i);
+        }
+        for(int i = 0; i < 300000; i += 3) {
+            st2.remove(i * 7);
+        }
+        FrozenTable<Integer,Integer> f2 = st2.freeze();
+        all = f2.size() == 200000;
+        for(int i = 0; i < 300000; i++) {
+            Integer v = f2.get(i * 7);
+            all &= (i % 3 == 0) ? v == null : v.equals(i);
+        }
+        if(all && f2.get(-1) == null && f2.getOrDefault(0, -5) == -5) {
+            System.out.println("Yay 2");
+        }
+
+        //"Aa" and "BB" share a hash code, as does every string built from them.
+        SeparateChain<String,String> st3 = new SeparateChain<>(2);
+        st3.put("AaAa", "1");
+        st3.put("AaBB", "2");
+        st3.put("BBAa", "3");
+        st3.put("BBBB", "4");
+        st3.put("other", "5");
+        FrozenTable<String,String> f3 = st3.freeze();
+        if(f3.size() == 5 && f3.getCapacity() == 2 && f3.get("AaBB").equals("2") && f3.get("BBBB").equals("4")
+                && f3.get("other").equals("5") && f3.get("BBBBB") == null) {
+            System.out.println("Yay 3");
+        }
+
+        FrozenTable<String,String> f4 = new OpenAddress<String,String>(2).freeze();
+        int[] count = {0};
+        f2.forEach((k, v) -> count[0]++);
+        if(f4.size() == 0 && f4.get("a") == null && f4.toString().isEmpty() && count[0] == 200000) {
+            System.out.println("Yay 4");
+        }
+
+        if(args.length == 1) {
+            benchmark(Integer.parseInt(args[0]));
+        }
+    }
+
+    /**
+     * Times freezing, and hit and miss gets in random order against the Separate Chaining table it was frozen from.
+     * @param n Number of keys
+     */
+    private static void benchmark(int n) {
+        String[] keys = new String[n];
+        String[] misses = new String[n];
+        for(int i = 0; i < n; i++) {
+            keys[i] = "key" + i;
+            misses[i] = "miss" + i;
+        }
+        SeparateChain<String,String> chain = new SeparateChain<>(2);
+        for(String k : keys) {
+            chain.put(k, k);
+        }
+        //Look keys up in random order; sequential keys would walk Separate Chaining's buckets in order.
+        java.util.Collections.shuffle(Arrays.asList(keys), new java.util.Random(1));
+        java.util.Collections.shuffle(Arrays.asList(misses), new java.util.Random(2));
+
+        for(int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            FrozenTable<String,String> frozen = chain.freeze();
+            long freeze = System.nanoTime() - start;
+
+            int found = 0;
+            start = System.nanoTime();
+            for(String k : keys) found += chain.get(k) != null ? 1 : 0;
+            long chainHits = System.nanoTime() - start;
+            start = System.nanoTime();
+            for(String k : misses) found += chain.get(k) != null ? 1 : 0;
+            long chainMisses = System.nanoTime() - start;
+            start = System.nanoTime();
+            for(String k : keys) found += frozen.get(k) != null ? 1 : 0;
+            long frozenHits = System.nanoTime() - start;
+            start = System.nanoTime();
+            for(String k : misses) found += frozen.get(k) != null ? 1 : 0;
+            long frozenMisses = System.nanoTime() - start;
+
+            System.out.printf("%d keys, freeze %dms; hits: SeparateChain %dns, FrozenTable %dns; misses: SeparateChain %dns, FrozenTable %dns (found %d)%n",
+                    n, freeze / 1_000_000, chainHits / n, frozenHits / n, chainMisses / n, frozenMisses / n, found);
+        }
+    }
+}
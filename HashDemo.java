@@ -11,8 +11,185 @@ class HashDemo {
 			demoProgram(args[0].equals("1"));
 			return;
 		}
+		else if (args.length==3 && args[0].equals("replay") && (args[1].equals("1") || args[1].equals("2"))) {
+			replayProgram(args[1].equals("1"), args[2]);
+		}
+		else if ((args.length==5 || (args.length==6 && args[5].equals("binary"))) && args[0].equals("generate") && TraceGenerator.isWorkload(args[1])) {
+			int ops, keys;
+			try {
+				ops = parse(args[2], 1, Integer.MAX_VALUE);
+				keys = parse(args[3], 1, Integer.MAX_VALUE);
+			}
+			catch (NumberFormatException e) {
+				usage();
+				return;
+			}
+			generateProgram(args[1], ops, keys, args[4], args.length==6);
+		}
+		else if (args.length==3 && args[0].equals("serve") && (args[1].equals("1") || args[1].equals("2"))) {
+			int port;
+			try {
+				port = parse(args[2], 0, 65535);
+			}
+			catch (NumberFormatException e) {
+				usage();
+				return;
+			}
+			serverProgram(args[1].equals("1"), port);
+		}
+		else if (args.length==7 && args[0].equals("load")) {
+			int[] n = new int[6];
+			try {
+				n[0] = parse(args[1], 1, 65535);
+				for (int i = 1; i < 5; i++) {
+					n[i] = parse(args[i + 1], 1, Integer.MAX_VALUE);
+				}
+				n[5] = parse(args[6], 0, 100);
+			}
+			catch (NumberFormatException e) {
+				usage();
+				return;
+			}
+			loadProgram(n[0], n[1], n[2], n[3], n[4], n[5]);
+		}
 		else {
-			System.out.println("Usage: java HashDemo [1|2]\n1 - Use Open Addressing with Linear Probing\n2 - Use Separate Chaining");
+			usage();
+		}
+	}
+
+	/**
+	 * Parses a numeric argument.
+	 * @param arg Argument
+	 * @param min Smallest allowed value
+	 * @param max Largest allowed value
+	 * @return Value
+	 * @throws NumberFormatException If it isn't a number in range
+	 */
+	private static int parse(String arg, int min, int max) {
+		int value = Integer.parseInt(arg);
+		if (value < min || value > max) {
+			throw new NumberFormatException(arg + " is not between " + min + " and " + max);
+		}
+		return value;
+	}
+
+	/**
+	 * Prints how to run the program.
+	 */
+	private static void usage() {
+		System.out.println("Usage: java HashDemo [1|2]\n1 - Use Open Addressing with Linear Probing\n2 - Use Separate Chaining"
+			+ "\n\n       java HashDemo replay [1|2] <trace>\nRun a trace file against the table and report throughput and latency"
+			+ "\n\n       java HashDemo generate [uniform|zipf|churn] <ops> <keys> <trace> [binary]\nWrite a synthetic trace"
+			+ "\n\n       java HashDemo serve [1|2] <port>\nServe the table over TCP on loopback"
+			+ "\n\n       java HashDemo load <port> <connections> <pipeline> <ops> <keys> <read%>\nDrive a served table and report throughput and latency");
+	}
+
+	/**
+	 * Batch program, runs every operation of a trace without prompts.
+	 * @param useTable1 Type of table.
+	 * @param path Trace file
+	 */
+	public static void replayProgram(boolean useTable1, String path) {
+		try(Trace trace = new Trace(path)) {
+			OpenAddress<String,String> table1 = new OpenAddress<>(2);
+			SeparateChain<String,String> table2 = new SeparateChain<>(2);
+			LatencyHistogram[] latencies = new LatencyHistogram[Trace.NAMES.length];
+			for(int i = 0; i < latencies.length; i++) {
+				latencies[i] = new LatencyHistogram();
+			}
+
+			long hits = 0;
+			long start = System.nanoTime();
+			while(trace.next()) {
+				long opStart = System.nanoTime();
+				switch(trace.op) {
+					case Trace.PUT:
+						if(useTable1) table1.put(trace.key, trace.value);
+						else table2.put(trace.key, trace.value);
+						break;
+					case Trace.GET:
+						hits += ((useTable1 ? table1.get(trace.key) : table2.get(trace.key)) != null) ? 1 : 0;
+						break;
+					case Trace.REMOVE:
+						hits += ((useTable1 ? table1.remove(trace.key) : table2.remove(trace.key)) != null) ? 1 : 0;
+						break;
+					case Trace.REHASH:
+					default:
+						if(useTable1) table1.rehash(trace.size);
+						else table2.rehash(trace.size);
+						break;
+				}
+				latencies[trace.op].record(System.nanoTime() - opStart);
+			}
+			long elapsed = System.nanoTime() - start;
+
+			LatencyHistogram all = new LatencyHistogram();
+			for(LatencyHistogram latency : latencies) {
+				all.add(latency);
+			}
+			System.out.println("Table: " + (useTable1 ? "Open Addressing" : "Separate Chaining")
+				+ ", Size: " + (useTable1 ? table1.size() : table2.size())
+				+ ", Capacity: " + (useTable1 ? table1.getCapacity() : table2.getCapacity()));
+			System.out.printf("%d ops in %.3fs, %.0f ops/s, %d hits%n", all.count(), elapsed / 1e9, all.count() / (elapsed / 1e9), hits);
+			for(int i = 0; i < latencies.length; i++) {
+				if(latencies[i].count() > 0) {
+					System.out.println(Trace.NAMES[i] + ": " + latencies[i]);
+				}
+			}
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Server program, serves the table until killed.
+	 * @param useTable1 Type of table.
+	 * @param port Port on loopback
+	 */
+	public static void serverProgram(boolean useTable1, int port) {
+		try {
+			TableServer server = new TableServer(useTable1, port);
+			System.out.println("Serving " + (useTable1 ? "Open Addressing" : "Separate Chaining") + " table on port " + server.getPort());
+			server.run();
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Load generator program.
+	 * @param port Server port
+	 * @param connections Number of connections
+	 * @param pipeline Requests per batch
+	 * @param ops Requests per connection
+	 * @param keys Number of distinct keys
+	 * @param readPercent Percentage of gets
+	 */
+	public static void loadProgram(int port, int connections, int pipeline, int ops, int keys, int readPercent) {
+		try {
+			new TableLoadClient(port, connections, pipeline, ops, keys, readPercent).run();
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes a synthetic trace.
+	 * @param workload uniform, zipf or churn
+	 * @param ops Number of operations after loading every key
+	 * @param keys Number of distinct keys
+	 * @param path Trace file
+	 * @param binary Write the binary form
+	 */
+	public static void generateProgram(String workload, int ops, int keys, String path, boolean binary) {
+		try(Trace.Writer out = new Trace.Writer(path, binary)) {
+			TraceGenerator.generate(workload, ops, keys, 42, out);
+		}
+		catch(Exception e) {
+			e.printStackTrace();
 		}
 	}
 
@@ -0,0 +1,133 @@
+/**
+ * Log-linear histogram of latencies in nanoseconds.
+ * Values are kept to within 1/64 of their magnitude, like a two significant digit HdrHistogram.
+ */
+class LatencyHistogram {
+    /**
+     * Linear sub-buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 64;
+
+    /**
+     * Counts per bucket.
+     */
+    private final long[] counts = new long[64 * SUB_BUCKETS];
+
+    /**
+     * Number of recorded values.
+     */
+    private long total = 0;
+
+    /**
+     * Sum of recorded values.
+     */
+    private long sum = 0;
+
+    /**
+     * Largest recorded value.
+     */
+    private long max = 0;
+
+    /**
+     * Records one latency.
+     * @param nanos Latency
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts[bucketOf(nanos)]++;
+        total++;
+        sum += nanos;
+        if (nanos > max)
+            max = nanos;
+    }
+
+    /**
+     * Adds every value of another histogram to this one.
+     * @param other Histogram
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] += other.counts[i];
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Return the number of recorded values.
+     * @return Count
+     */
+    public long count() {
+        return total;
+    }
+
+    /**
+     * Return the mean latency.
+     * @return Mean
+     */
+    public double mean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    /**
+     * Return the largest latency.
+     * @return Max
+     */
+    public long max() {
+        return max;
+    }
+
+    /**
+     * Return the latency at a percentile.
+     * @param percentile Percentile between 0 and 100
+     * @return Highest value of the bucket holding the percentile
+     */
+    public long percentile(double percentile) {
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(highestOf(i), max);
+        }
+        return max;
+    }
+
+    /**
+     * Calculates the bucket of a value.
+     * @param v Value
+     * @return Bucket
+     */
+    private static int bucketOf(long v) {
+        if (v < 2 * SUB_BUCKETS)
+            return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - 6;
+        return shift * SUB_BUCKETS + (int) (v >>> shift);
+    }
+
+    /**
+     * Calculates the highest value of a bucket.
+     * @param bucket Bucket
+     * @return Value
+     */
+    private static long highestOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long top = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * Returns string representation.
+     * @return String
+     */
+    public String toString() {
+        return String.format("count=%d mean=%.0fns p50=%dns p90=%dns p99=%dns p99.9=%dns max=%dns",
+                total, mean(), percentile(50), percentile(90), percentile(99), percentile(99.9), max);
+    }
+}
@@ -61,6 +61,19 @@ class OpenAddress<K,V> {
             throw new IllegalArgumentException();
         }
 
+        int slot = locate(k);
+        if (slot >= 0)
+            storage[slot].setValue(v);
+        else
+            insertAt(-slot - 1, k, v);
+    }
+
+    /**
+     * Remove the given key (and associated value) from the table.
+     * @param k Key
+     * @return Value in the table if not null
+     */
+    public V remove(K k) {
         int bucketsProbed = 0;
         int bucket = findHashPosition(k);
 
@@ -68,72 +81,290 @@ class OpenAddress<K,V> {
         {
             if (storage[bucket] != null && storage[bucket].getKey().equals(k))
             {
-                storage[bucket] = new TableEntry<>(k, v);
-                return;
-            }
-            else if (storage[bucket] == null)
-            {
-                storage[bucket] = new TableEntry<>(k, v);
-                elements++;
-                if (isTombstone(bucket))
-                    tombstones[bucket] = false;
-                while (size() >= (getCapacity() * .8))
-                    rehash(getCapacity() * 2);
-                return;
+                V val = storage[bucket].getValue();
+                removeAt(bucket);
+                return val;
             }
-
-
             bucket = (bucket + 1) % getCapacity();
             bucketsProbed++;
         }
+        return null;
     }
 
     /**
-     * Remove the given key (and associated value) from the table.
+     * Given a key, return the value from the table.
      * @param k Key
-     * @return Value in the table if not null
+     * @return Value
      */
-    public V remove(K k) {
+    public V get(K k) {
         int bucketsProbed = 0;
         int bucket = findHashPosition(k);
 
         while (bucketsProbed < getCapacity())
         {
-            if (storage[bucket].getKey().equals(k))
+            if (storage[bucket] != null && storage[bucket].getKey().equals(k))
             {
-                V val = storage[bucket].getValue();
-                storage[bucket] = null;
-                elements--;
-                tombstones[bucket] = true;
-                return val;
+                return storage[bucket].getValue();
             }
             bucket = (bucket + 1) % getCapacity();
             bucketsProbed++;
         }
+        //If the value is not in the table, return null.
+
         return null;
     }
 
     /**
-     * Given a key, return the value from the table.
+     * Given a key, return the value from the table, or a default if absent.
      * @param k Key
+     * @param def Default
      * @return Value
      */
-    public V get(K k) {
+    public V getOrDefault(K k, V def) {
+        int slot = locate(k);
+        return slot >= 0 ? storage[slot].getValue() : def;
+    }
+
+    /**
+     * Puts entry in storage only if the key is absent.
+     * @param k Key
+     * @param v Value
+     * @return Value already in the table, or null if v was added
+     */
+    public V putIfAbsent(K k, V v) {
+        if (v == null)
+        {
+            throw new IllegalArgumentException();
+        }
+        int slot = locate(k);
+        if (slot >= 0)
+            return storage[slot].getValue();
+        insertAt(-slot - 1, k, v);
+        return null;
+    }
+
+    /**
+     * Replaces the value of a key only if it is present.
+     * @param k Key
+     * @param v Value
+     * @return Replaced value, or null if absent
+     */
+    public V replace(K k, V v) {
+        if (v == null)
+        {
+            throw new IllegalArgumentException();
+        }
+        int slot = locate(k);
+        if (slot < 0)
+            return null;
+        V old = storage[slot].getValue();
+        storage[slot].setValue(v);
+        return old;
+    }
+
+    /**
+     * Returns the value of a key, adding one from a function if absent.
+     * The function must not change this table.
+     * @param k Key
+     * @param f Makes the value from the key; null adds nothing
+     * @return Value
+     */
+    public V computeIfAbsent(K k, java.util.function.Function<? super K, ? extends V> f) {
+        int slot = locate(k);
+        if (slot >= 0)
+            return storage[slot].getValue();
+        V v = f.apply(k);
+        if (v != null)
+            insertAt(-slot - 1, k, v);
+        return v;
+    }
+
+    /**
+     * Sets the value of a key from its current value.
+     * The function must not change this table.
+     * @param k Key
+     * @param f Makes the new value from the key and the current value, or null if absent; null removes the key
+     * @return New value
+     */
+    public V compute(K k, java.util.function.BiFunction<? super K, ? super V, ? extends V> f) {
+        int slot = locate(k);
+        V v = f.apply(k, slot >= 0 ? storage[slot].getValue() : null);
+        if (slot >= 0 && v != null)
+            storage[slot].setValue(v);
+        else if (slot >= 0)
+            removeAt(slot);
+        else if (v != null)
+            insertAt(-slot - 1, k, v);
+        return v;
+    }
+
+    /**
+     * Adds a value for a key, or combines it with the current value.
+     * The function must not change this table.
+     * @param k Key
+     * @param v Value
+     * @param f Combines the current and given values; null removes the key
+     * @return New value
+     */
+    public V merge(K k, V v, java.util.function.BiFunction<? super V, ? super V, ? extends V> f) {
+        if (v == null)
+        {
+            throw new IllegalArgumentException();
+        }
+        int slot = locate(k);
+        if (slot < 0)
+        {
+            insertAt(-slot - 1, k, v);
+            return v;
+        }
+        V merged = f.apply(storage[slot].getValue(), v);
+        if (merged != null)
+            storage[slot].setValue(merged);
+        else
+            removeAt(slot);
+        return merged;
+    }
+
+    /**
+     * Adds to a counter, starting it at zero if absent. Values must be Longs.
+     * @param k Key
+     * @param delta Amount
+     * @return New count
+     */
+    @SuppressWarnings("unchecked")
+    public long addTo(K k, long delta) {
+        int slot = locate(k);
+        if (slot < 0)
+        {
+            insertAt(-slot - 1, k, (V) Long.valueOf(delta));
+            return delta;
+        }
+        long count = (Long) storage[slot].getValue() + delta;
+        storage[slot].setValue((V) Long.valueOf(count));
+        return count;
+    }
+
+    /**
+     * Finds the slot of a key with one probe sequence.
+     * A key always sits before the first slot that was never used,
+     * since inserts take the first free slot along the way.
+     * @param k Key
+     * @return Slot of the key, or -(first free slot) - 1 if absent
+     */
+    private int locate(K k) {
+        if (k == null)
+        {
+            throw new IllegalArgumentException();
+        }
+
         int bucketsProbed = 0;
         int bucket = findHashPosition(k);
+        int free = -1;
 
         while (bucketsProbed < getCapacity())
         {
             if (storage[bucket] != null && storage[bucket].getKey().equals(k))
             {
-                return storage[bucket].getValue();
+                return bucket;
+            }
+            else if (storage[bucket] == null)
+            {
+                if (free == -1)
+                    free = bucket;
+                if (!isTombstone(bucket))
+                    break;
             }
             bucket = (bucket + 1) % getCapacity();
             bucketsProbed++;
         }
-        //If the value is not in the table, return null.
+        return -free - 1;
+    }
 
-        return null;
+    /**
+     * Adds an entry at a free slot found by locate.
+     * @param slot Slot
+     * @param k Key
+     * @param v Value
+     */
+    private void insertAt(int slot, K k, V v) {
+        storage[slot] = new TableEntry<>(k, v);
+        elements++;
+        tombstones[slot] = false;
+        while (size() >= (getCapacity() * .8))
+            rehash(getCapacity() * 2);
+    }
+
+    /**
+     * Removes the entry at a slot, leaving a tombstone.
+     * @param slot Slot
+     */
+    private void removeAt(int slot) {
+        storage[slot] = null;
+        elements--;
+        tombstones[slot] = true;
+    }
+
+    /**
+     * Calls an action for every entry, in table order.
+     * @param action Action
+     */
+    public void forEach(java.util.function.BiConsumer<? super K, ? super V> action) {
+        for (TableEntry<K,V> element : storage)
+        {
+            if (element != null)
+                action.accept(element.getKey(), element.getValue());
+        }
+    }
+
+    /**
+     * Builds a read-only copy over a minimal perfect hash of the current keys.
+     * @return Frozen table
+     */
+    public FrozenTable<K,V> freeze() {
+        Object[] ks = new Object[size()];
+        Object[] vs = new Object[size()];
+        int n = 0;
+        for (TableEntry<K,V> element : storage)
+        {
+            if (element != null)
+            {
+                ks[n] = element.getKey();
+                vs[n++] = element.getValue();
+            }
+        }
+        return new FrozenTable<>(ks, vs);
+    }
+
+    /**
+     * Return the number of tombstones.
+     * @return Tombstones
+     */
+    public int tombstoneCount() {
+        int count = 0;
+        for (boolean tombstone : tombstones)
+        {
+            if (tombstone)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Return the mean number of slots a successful get probes.
+     * @return Probe length
+     */
+    public double averageProbeLength() {
+        if (size() == 0)
+        {
+            return 0;
+        }
+        long probes = 0;
+        for (int i = 0; i < storage.length; i++)
+        {
+            if (storage[i] != null)
+                probes += (i - findHashPosition(storage[i].getKey()) + getCapacity()) % getCapacity() + 1;
+        }
+        return (double) probes / size();
     }
 
     /**
@@ -306,6 +537,37 @@ class OpenAddress<K,V> {
                 System.out.println("Yay 11");
             }
         }
+
+        OpenAddress<String,Long> st4 = new OpenAddress<>(2);
+        st4.addTo("a", 2);
+        st4.addTo("a", 3);
+        st4.merge("b", 1L, Long::sum);
+        st4.merge("b", 1L, Long::sum);
+        if(st4.get("a") == 5L && st4.get("b") == 2L && st4.getOrDefault("c", 0L) == 0L && st4.putIfAbsent("c", 7L) == null && st4.putIfAbsent("c", 8L) == 7L
+                && st4.replace("d", 1L) == null && st4.replace("c", 9L) == 7L && st4.size() == 3) {
+            System.out.println("Yay 12");
+        }
+
+        st4.compute("a", (k, v) -> null);
+        st4.compute("e", (k, v) -> v == null ? 1L : v + 1);
+        if(st4.get("a") == null && st4.get("e") == 1L && st4.computeIfAbsent("e", k -> 5L) == 1L && st4.computeIfAbsent("f", k -> 6L) == 6L
+                && st4.merge("f", 0L, (a, b) -> null) == null && st4.get("f") == null && st4.size() == 3) {
+            System.out.println("Yay 13");
+        }
+
+        //1 and 11 share bucket 1, so 11 sits after 1's tombstone.
+        OpenAddress<Integer,String> st5 = new OpenAddress<>(10);
+        st5.put(1, "a");
+        st5.put(11, "b");
+        if(st5.remove(5) == null && st5.remove(21) == null && st5.size() == 2) {
+            System.out.println("Yay 14");
+        }
+
+        st5.remove(1);
+        st5.put(11, "c");
+        if(st5.size() == 1 && st5.get(11).equals("c") && st5.toStringDebug().equals("[0]: null\n[1]: tombstone\n[2]: 11:c\n[3]: null\n[4]: null\n[5]: null\n[6]: null\n[7]: null\n[8]: null\n[9]: null")) {
+            System.out.println("Yay 15");
+        }
     }
 
     /**
@@ -0,0 +1,596 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Immutable file of records sorted by key hash, with a Bloom filter and a sparse index held in memory.
+ * Layout: header, records, index, Bloom filter.
+ * A record is its hash, a length-prefixed key and a length-prefixed value, where a length of -1 marks a removed key.
+ */
+class Segment implements AutoCloseable {
+    /**
+     * First bytes of a segment file.
+     */
+    private static final int MAGIC = 0x53454731;
+
+    /**
+     * Header length.
+     */
+    private static final int HEADER = 32;
+
+    /**
+     * Records per index block, except that records with one hash are never split across blocks.
+     */
+    private static final int BLOCK_RECORDS = 16;
+
+    /**
+     * Bloom filter bits per record.
+     */
+    private static final int BLOOM_BITS = 10;
+
+    /**
+     * Bloom filter probes per key.
+     */
+    private static final int BLOOM_PROBES = 7;
+
+    /**
+     * File.
+     */
+    private final Path path;
+
+    /**
+     * Open file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Number of records.
+     */
+    private final int count;
+
+    /**
+     * Bloom filter bits.
+     */
+    private final long[] bloom;
+
+    /**
+     * First hash of each block.
+     */
+    private final long[] blockHashes;
+
+    /**
+     * File offset of each block, plus the end of the records.
+     */
+    private final long[] blockOffsets;
+
+    /**
+     * Opens a segment and loads its filter and index.
+     * @param path File
+     * @throws IOException If the file is not a segment
+     */
+    public Segment(Path path) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try
+        {
+            ByteBuffer header = read(0, HEADER);
+            if (header.getInt() != MAGIC)
+                throw new IOException("Not a segment: " + path);
+            count = header.getInt();
+            int bloomWords = header.getInt();
+            int blocks = header.getInt();
+            long indexOffset = header.getLong();
+            long bloomOffset = header.getLong();
+
+            ByteBuffer index = read(indexOffset, blocks * 16 + 8);
+            blockHashes = new long[blocks];
+            blockOffsets = new long[blocks + 1];
+            for (int i = 0; i < blocks; i++)
+            {
+                blockHashes[i] = index.getLong();
+                blockOffsets[i] = index.getLong();
+            }
+            blockOffsets[blocks] = index.getLong();
+
+            bloom = new long[bloomWords];
+            read(bloomOffset, bloomWords * 8).asLongBuffer().get(bloom);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Return the file.
+     * @return Path
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Return the number of records, including removed keys.
+     * @return Count
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Checks the Bloom filter.
+     * @param hash Key hash
+     * @return False if the key is certainly not in the segment
+     */
+    public boolean mightContain(long hash) {
+        return bloom.length > 0 && bloomTest(bloom, hash);
+    }
+
+    /**
+     * Looks a key up with at most one read of the file.
+     * @param hash Key hash
+     * @param key Key bytes
+     * @return The record, with a null value if the key was removed, or null if the segment doesn't have the key
+     * @throws IOException If reading fails
+     */
+    public Record find(long hash, byte[] key) throws IOException {
+        if (!mightContain(hash))
+            return null;
+
+        //A hash's records all sit in the last block starting at or before it.
+        int block = Arrays.binarySearch(blockHashes, hash);
+        if (block < 0)
+            block = -block - 2;
+        if (block < 0)
+            return null;
+
+        ByteBuffer records = read(blockOffsets[block], (int) (blockOffsets[block + 1] - blockOffsets[block]));
+        ByteBuffer wanted = ByteBuffer.wrap(key);
+        while (records.hasRemaining())
+        {
+            long h = records.getLong();
+            if (h > hash)
+                return null;
+            int keyLength = records.getInt();
+            boolean match = h == hash && keyLength == key.length
+                    && records.slice(records.position(), keyLength).equals(wanted);
+            records.position(records.position() + keyLength);
+            int valueLength = records.getInt();
+            if (match)
+            {
+                byte[] value = null;
+                if (valueLength >= 0)
+                {
+                    value = new byte[valueLength];
+                    records.get(value);
+                }
+                return new Record(hash, key, value);
+            }
+            records.position(records.position() + Math.max(0, valueLength));
+        }
+        return null;
+    }
+
+    /**
+     * Streams every record in order from its own channel, which the caller must close.
+     * @return Records
+     * @throws IOException If the file can't be read
+     */
+    public Records records() throws IOException {
+        return new Records();
+    }
+
+    /**
+     * Closes the file.
+     * @throws IOException If closing fails
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads part of the file.
+     * @param position Offset
+     * @param length Length
+     * @return Buffer ready to read
+     * @throws IOException If the file is too short
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException(path.toString());
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Writes records, which must be sorted by {@link Record#compareTo}, to a new segment file.
+     * @param path File
+     * @param records Records
+     * @param expected Upper bound on the number of records, to size the Bloom filter
+     * @return The segment, open
+     * @throws IOException If writing fails
+     */
+    public static Segment write(Path path, Iterator<Record> records, int expected) throws IOException {
+        long[] bloom = new long[Math.max(1, (int) ((long) expected * BLOOM_BITS / 64 + 1))];
+        List<long[]> index = new ArrayList<>();
+        int count = 0;
+        long offset = HEADER;
+
+        //Opened outside the try so an existing file at the path is never deleted below.
+        FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try (out)
+        {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out.position(HEADER)), 1 << 16));
+            int inBlock = BLOCK_RECORDS;
+            long lastHash = 0;
+            while (records.hasNext())
+            {
+                Record r = records.next();
+                if (inBlock >= BLOCK_RECORDS && (count == 0 || r.hash != lastHash))
+                {
+                    index.add(new long[] {r.hash, offset});
+                    inBlock = 0;
+                }
+                bloomAdd(bloom, r.hash);
+                data.writeLong(r.hash);
+                data.writeInt(r.key.length);
+                data.write(r.key);
+                data.writeInt(r.value == null ? -1 : r.value.length);
+                if (r.value != null)
+                    data.write(r.value);
+                offset += 16 + r.key.length + (r.value == null ? 0 : r.value.length);
+                lastHash = r.hash;
+                inBlock++;
+                count++;
+            }
+
+            long indexOffset = offset;
+            for (long[] block : index)
+            {
+                data.writeLong(block[0]);
+                data.writeLong(block[1]);
+            }
+            data.writeLong(indexOffset);
+            long bloomOffset = indexOffset + index.size() * 16L + 8;
+            for (long word : bloom)
+                data.writeLong(word);
+            data.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(count).putInt(bloom.length).putInt(index.size()).putLong(indexOffset).putLong(bloomOffset).flip();
+            out.write(header, 0);
+            out.force(true);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        return new Segment(path);
+    }
+
+    /**
+     * Merges segments into one, keeping the newest record of each key.
+     * @param path File
+     * @param segments Segments, oldest first
+     * @param dropRemoved Leave out removed keys, safe only when no older segment remains
+     * @return The merged segment, open
+     * @throws IOException If reading or writing fails
+     */
+    public static Segment merge(Path path, List<Segment> segments, boolean dropRemoved) throws IOException {
+        List<Records> open = new ArrayList<>();
+        Segment merged = null;
+        try
+        {
+            merged = merge(path, segments, dropRemoved, open);
+            return merged;
+        }
+        finally
+        {
+            //Close every cursor even if the merge failed; a close failure only surfaces after a merge succeeded.
+            IOException failed = null;
+            for (Records r : open)
+            {
+                try
+                {
+                    r.close();
+                }
+                catch (IOException e)
+                {
+                    if (failed == null)
+                        failed = e;
+                    else
+                        failed.addSuppressed(e);
+                }
+            }
+            if (failed != null && merged != null)
+            {
+                merged.close();
+                throw failed;
+            }
+        }
+    }
+
+    /**
+     * Merges segments into one, keeping the newest record of each key.
+     * @param path File
+     * @param segments Segments, oldest first
+     * @param dropRemoved Leave out removed keys, safe only when no older segment remains
+     * @param open Receives every record stream opened, for the caller to close
+     * @return The merged segment, open
+     * @throws IOException If reading or writing fails
+     */
+    private static Segment merge(Path path, List<Segment> segments, boolean dropRemoved, List<Records> open) throws IOException {
+        PriorityQueue<Cursor> heads = new PriorityQueue<>();
+        int expected = 0;
+        for (int age = 0; age < segments.size(); age++)
+        {
+            Records records = segments.get(age).records();
+            open.add(records);
+            Cursor c = new Cursor(records, age);
+            if (c.advance())
+                heads.add(c);
+            expected += segments.get(age).size();
+        }
+
+        Iterator<Record> merged = new Iterator<>() {
+            private Record next = step();
+
+            private Record step() {
+                while (!heads.isEmpty())
+                {
+                    Cursor newest = heads.poll();
+                    Record r = newest.head;
+                    if (newest.advance())
+                        heads.add(newest);
+                    //Older records of the same key sort right after the newest.
+                    while (!heads.isEmpty() && heads.peek().head.compareTo(r) == 0)
+                    {
+                        Cursor older = heads.poll();
+                        if (older.advance())
+                            heads.add(older);
+                    }
+                    if (r.value != null || !dropRemoved)
+                        return r;
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public Record next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+                Record r = next;
+                next = step();
+                return r;
+            }
+        };
+        return write(path, merged, expected);
+    }
+
+    /**
+     * Sets a key's Bloom filter bits.
+     * @param bloom Filter
+     * @param hash Key hash
+     */
+    private static void bloomAdd(long[] bloom, long hash) {
+        long bits = bloom.length * 64L;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < BLOOM_PROBES; i++)
+        {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bits;
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Tests a key's Bloom filter bits.
+     * @param bloom Filter
+     * @param hash Key hash
+     * @return True if every bit is set
+     */
+    private static boolean bloomTest(long[] bloom, long hash) {
+        long bits = bloom.length * 64L;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < BLOOM_PROBES; i++)
+        {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bits;
+            if ((bloom[(int) (bit >>> 6)] & 1L << bit) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hashes key bytes.
+     * @param key Key bytes
+     * @return 64-bit hash
+     */
+    public static long hash(byte[] key) {
+        long h = 0xCBF29CE484222325L;
+        for (byte b : key)
+        {
+            h ^= b;
+            h *= 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * A key and value in serialized form.
+     */
+    public static class Record implements Comparable<Record> {
+        /**
+         * Key hash.
+         */
+        public final long hash;
+
+        /**
+         * Key bytes.
+         */
+        public final byte[] key;
+
+        /**
+         * Value bytes, or null for a removed key.
+         */
+        public final byte[] value;
+
+        /**
+         * Record constructor.
+         * @param hash Key hash
+         * @param key Key bytes
+         * @param value Value bytes, or null for a removed key
+         */
+        public Record(long hash, byte[] key, byte[] value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        /**
+         * Orders by hash, then by key bytes.
+         * @param o Other record
+         * @return Comparison
+         */
+        public int compareTo(Record o) {
+            int c = Long.compare(hash, o.hash);
+            return c != 0 ? c : Arrays.compare(key, o.key);
+        }
+    }
+
+    /**
+     * Records of the segment read in order through a channel of their own.
+     */
+    class Records implements Iterator<Record>, Closeable {
+        /**
+         * Buffered channel positioned after the header.
+         */
+        private final DataInputStream in;
+
+        /**
+         * Records read so far.
+         */
+        private int read = 0;
+
+        /**
+         * Opens a channel after the header.
+         * @throws IOException If the file can't be read
+         */
+        private Records() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(FileChannel.open(path, StandardOpenOption.READ).position(HEADER)), 1 << 16));
+        }
+
+        public boolean hasNext() {
+            return read < count;
+        }
+
+        public Record next() {
+            if (read >= count)
+                throw new NoSuchElementException();
+            try
+            {
+                long hash = in.readLong();
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                int valueLength = in.readInt();
+                byte[] value = null;
+                if (valueLength >= 0)
+                {
+                    value = new byte[valueLength];
+                    in.readFully(value);
+                }
+                read++;
+                return new Record(hash, key, value);
+            }
+            catch (IOException e)
+            {
+                throw new java.io.UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Closes the channel.
+         * @throws IOException If closing fails
+         */
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Position in one segment during a merge.
+     */
+    private static class Cursor implements Comparable<Cursor> {
+        /**
+         * Remaining records.
+         */
+        final Iterator<Record> records;
+
+        /**
+         * Position of the segment, higher is newer.
+         */
+        final int age;
+
+        /**
+         * Current record.
+         */
+        Record head;
+
+        /**
+         * Cursor constructor.
+         * @param records Records
+         * @param age Position of the segment, higher is newer
+         */
+        Cursor(Iterator<Record> records, int age) {
+            this.records = records;
+            this.age = age;
+        }
+
+        /**
+         * Moves to the next record.
+         * @return False at the end
+         */
+        boolean advance() {
+            head = records.hasNext() ? records.next() : null;
+            return head != null;
+        }
+
+        /**
+         * Orders by record, newest segment first.
+         * @param o Other cursor
+         * @return Comparison
+         */
+        public int compareTo(Cursor o) {
+            int c = head.compareTo(o.head);
+            return c != 0 ? c : Integer.compare(o.age, age);
+        }
+    }
+}
@@ -1,13 +1,55 @@
 /**
  * Separate Chaining Table.
+ * Entries live in parallel arrays and chains link them by index, so the table
+ * holds no per-entry objects and a rehash only relinks indices.
  * @param <K> Key
  * @param <V> Value
  */
 class SeparateChain<K,V> {
     /**
-     * Array of entries.
+     * End of a chain or of the free list.
      */
-    private Node<K,V>[] storage;
+    private static final int NONE = -1;
+
+    /**
+     * First entry of each bucket's chain, or NONE.
+     */
+    private int[] heads;
+
+    /**
+     * Key of each entry.
+     */
+    private Object[] keys;
+
+    /**
+     * Value of each entry.
+     */
+    private Object[] values;
+
+    /**
+     * Hash code of each entry's key.
+     */
+    private int[] hashes;
+
+    /**
+     * Next entry in each entry's chain, or NONE; links the free list for removed entries.
+     */
+    private int[] next;
+
+    /**
+     * First removed entry available for reuse, or NONE.
+     */
+    private int free = NONE;
+
+    /**
+     * Entries handed out so far; indices from here on have never been used.
+     */
+    private int used = 0;
+
+    /**
+     * Entry before the one locate last returned, or NONE if that one heads its chain.
+     */
+    private int previous = NONE;
 
     /**
      * Number of elements.
@@ -18,13 +60,16 @@ class SeparateChain<K,V> {
      * Hashtable constructor.
      * @param size Size of table
      */
-    
-    @SuppressWarnings("unchecked")
     public SeparateChain(int size) {
         //Create a hash table where the size of the storage is
         //the provided size (number of "slots" in the table)
         //Assume size is >= 2
-        storage = new Node[size];
+        heads = new int[size];
+        java.util.Arrays.fill(heads, NONE);
+        keys = new Object[Math.max(2, size)];
+        values = new Object[keys.length];
+        hashes = new int[keys.length];
+        next = new int[keys.length];
     }
 
     /**
@@ -32,7 +77,7 @@ class SeparateChain<K,V> {
      * @return Capacity
      */
     public int getCapacity() {
-        return storage.length;
+        return heads.length;
     }
 
     /**
@@ -57,34 +102,14 @@ class SeparateChain<K,V> {
             throw new IllegalArgumentException();
         }
 
-        int bucket = findHashPosition(k);
-
-        Node<K, V> node = new Node<>(new TableEntry<>(k,v));
-        Node<K, V> head = storage[bucket];
+        int hash = hash(k);
+        int bucket = findHashPosition(hash);
+        int i = locate(bucket, hash, k);
 
-        if (storage[bucket] == null)
-        {
-            storage[bucket] = node;
-            elements++;
-            while (size() >= (getCapacity() * .8))
-                rehash(getCapacity() * 2);
-        }
-        else {
-            while (head.next != null) {
-                if (head.entry.getKey().equals(k)) {
-                    head.entry = node.entry;
-                }
-                head = head.next;
-            }
-            if (head.entry.getKey().equals(k)) {
-                head.entry = node.entry;
-            } else {
-                head.next = node;
-                elements++;
-                while (size() >= (getCapacity() * .8))
-                    rehash(getCapacity() * 2);
-            }
-        }
+        if (i != NONE && matches(i, hash, k))
+            values[i] = v;
+        else
+            insertAfter(bucket, i, k, hash, v);
     }
 
     /**
@@ -92,47 +117,24 @@ class SeparateChain<K,V> {
      * @param k Key
      * @return Value
      */
+    @SuppressWarnings("unchecked")
     public V remove(K k) {
         //Remove the given key (and associated value)
         //from the table. Return the value removed.
         //If the value is not in the table, return null.
-        int bucket = findHashPosition(k);
-        Node<K, V> head = storage[bucket];
+        int hash = k.hashCode();
+        int bucket = findHashPosition(hash);
+        int prev = NONE;
 
-        if (storage[bucket] == null)
+        for (int i = heads[bucket]; i != NONE; prev = i, i = next[i])
         {
-            return null;
-        }
-        else if (storage[bucket].entry.getKey().equals(k))
-        {
-            V oldNode = storage[bucket].entry.getValue();
-            storage[bucket] = storage[bucket].next;
-            head = null;
-            elements--;
-            return oldNode;
-        }
-        else
-        {
-            while (head.next != null)
+            if (matches(i, hash, k))
             {
-                if (head.next.entry.getKey().equals(k))
-                {
-                    V oldNext = head.next.entry.getValue();
-                    if (head.next.next != null)
-                    {
-                        head.next = head.next.next;
-                    }
-                    else
-                    {
-                        head.next.entry = null;
-                        elements--;
-                        return oldNext;
-                    }
-                }
-                head = head.next;
+                V old = (V) values[i];
+                unlink(bucket, prev, i);
+                return old;
             }
         }
-
         return null;
     }
 
@@ -141,110 +143,398 @@ class SeparateChain<K,V> {
      * @param k Key
      * @return Value
      */
+    @SuppressWarnings("unchecked")
     public V get(K k) {
-        int bucket = findHashPosition(k);
-        Node<K, V> head = storage[bucket];
+        int hash = k.hashCode();
 
-        while (head != null)
+        for (int i = heads[findHashPosition(hash)]; i != NONE; i = next[i])
         {
-            if (head.entry.getKey().equals(k))
+            if (matches(i, hash, k))
             {
-                return head.entry.getValue();
+                return (V) values[i];
             }
-            head = head.next;
+        }
+        return null;
+    }
 
+    /**
+     * Given a key, return the value from the table, or a default if absent.
+     * @param k Key
+     * @param def Default
+     * @return Value
+     */
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(K k, V def) {
+        int hash = hash(k);
+        int i = locate(findHashPosition(hash), hash, k);
+        return i != NONE && matches(i, hash, k) ? (V) values[i] : def;
+    }
+
+    /**
+     * Puts entry in storage only if the key is absent.
+     * @param k Key
+     * @param v Value
+     * @return Value already in the table, or null if v was added
+     */
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(K k, V v) {
+        if (k == null || v == null)
+        {
+            throw new IllegalArgumentException();
         }
+        int hash = hash(k);
+        int bucket = findHashPosition(hash);
+        int i = locate(bucket, hash, k);
+        if (i != NONE && matches(i, hash, k))
+            return (V) values[i];
+        insertAfter(bucket, i, k, hash, v);
         return null;
     }
 
     /**
-     * Rehashes storage.
-     * @param size New size
-     * @return True if successful
+     * Replaces the value of a key only if it is present.
+     * @param k Key
+     * @param v Value
+     * @return Replaced value, or null if absent
      */
     @SuppressWarnings("unchecked")
-    public boolean rehash(int size) {
-        //Increase or decrease the size of the storage,
-        //rehashing all values.
-        if (size < 1)
+    public V replace(K k, V v) {
+        if (v == null)
         {
-            return false;
+            throw new IllegalArgumentException();
         }
-        Node<K,V>[] oldStorage = storage;
-        storage = new Node[size];
-        elements = 0;
+        int hash = hash(k);
+        int i = locate(findHashPosition(hash), hash, k);
+        if (i == NONE || !matches(i, hash, k))
+            return null;
+        V old = (V) values[i];
+        values[i] = v;
+        return old;
+    }
 
-        Node<K, V> head;
+    /**
+     * Returns the value of a key, adding one from a function if absent.
+     * The function must not change this table.
+     * @param k Key
+     * @param f Makes the value from the key; null adds nothing
+     * @return Value
+     */
+    @SuppressWarnings("unchecked")
+    public V computeIfAbsent(K k, java.util.function.Function<? super K, ? extends V> f) {
+        int hash = hash(k);
+        int bucket = findHashPosition(hash);
+        int i = locate(bucket, hash, k);
+        if (i != NONE && matches(i, hash, k))
+            return (V) values[i];
+        V v = f.apply(k);
+        if (v != null)
+            insertAfter(bucket, i, k, hash, v);
+        return v;
+    }
+
+    /**
+     * Sets the value of a key from its current value.
+     * The function must not change this table.
+     * @param k Key
+     * @param f Makes the new value from the key and the current value, or null if absent; null removes the key
+     * @return New value
+     */
+    @SuppressWarnings("unchecked")
+    public V compute(K k, java.util.function.BiFunction<? super K, ? super V, ? extends V> f) {
+        int hash = hash(k);
+        int bucket = findHashPosition(hash);
+        int i = locate(bucket, hash, k);
+        boolean found = i != NONE && matches(i, hash, k);
+        int prev = previous;
+        V v = f.apply(k, found ? (V) values[i] : null);
+        if (found && v != null)
+            values[i] = v;
+        else if (found)
+            unlink(bucket, prev, i);
+        else if (v != null)
+            insertAfter(bucket, i, k, hash, v);
+        return v;
+    }
 
-        for (Node<K,V> node : oldStorage)
+    /**
+     * Adds a value for a key, or combines it with the current value.
+     * The function must not change this table.
+     * @param k Key
+     * @param v Value
+     * @param f Combines the current and given values; null removes the key
+     * @return New value
+     */
+    @SuppressWarnings("unchecked")
+    public V merge(K k, V v, java.util.function.BiFunction<? super V, ? super V, ? extends V> f) {
+        if (k == null || v == null)
         {
-            if (node != null)
-            {
-                rehashPut(node.entry.getKey(), node.entry.getValue());
-                head = node;
-                while (head.next != null)
-                {
-                    rehashPut(head.next.entry.getKey(), head.next.entry.getValue());
-                    head = head.next;
-                }
-            }
+            throw new IllegalArgumentException();
         }
+        int hash = hash(k);
+        int bucket = findHashPosition(hash);
+        int i = locate(bucket, hash, k);
+        if (i == NONE || !matches(i, hash, k))
+        {
+            insertAfter(bucket, i, k, hash, v);
+            return v;
+        }
+        int prev = previous;
+        V merged = f.apply((V) values[i], v);
+        if (merged != null)
+            values[i] = merged;
+        else
+            unlink(bucket, prev, i);
+        return merged;
+    }
 
-        return true;
+    /**
+     * Adds to a counter, starting it at zero if absent. Values must be Longs.
+     * @param k Key
+     * @param delta Amount
+     * @return New count
+     */
+    public long addTo(K k, long delta) {
+        if (k == null)
+        {
+            throw new IllegalArgumentException();
+        }
+        int hash = hash(k);
+        int bucket = findHashPosition(hash);
+        int i = locate(bucket, hash, k);
+        if (i == NONE || !matches(i, hash, k))
+        {
+            insertAfter(bucket, i, k, hash, Long.valueOf(delta));
+            return delta;
+        }
+        long count = (Long) values[i] + delta;
+        values[i] = count;
+        return count;
     }
 
     /**
-     * Calculates hash position of key.
+     * Walks a chain once, stopping at the key or at the last entry.
+     * @param bucket Bucket of the key
+     * @param hash Hash code of the key
      * @param k Key
-     * @return Hash position
+     * @return Entry holding the key, else the tail of the chain, or NONE if the chain is empty;
+     * the entry before it is left in previous
      */
-    private int findHashPosition(K k)
-    {
-        int bucket = k.hashCode() % getCapacity();
+    private int locate(int bucket, int hash, K k) {
+        previous = NONE;
+        int i = heads[bucket];
+        if (i == NONE)
+            return NONE;
+        while (!matches(i, hash, k) && next[i] != NONE)
+        {
+            previous = i;
+            i = next[i];
+        }
+        return i;
+    }
 
-        if (bucket < 0)
-            bucket *= -1;
+    /**
+     * Unlinks an entry from its chain and frees it.
+     * @param bucket Bucket of the entry
+     * @param prev Entry before it, or NONE if it heads the chain
+     * @param i Entry
+     */
+    private void unlink(int bucket, int prev, int i) {
+        if (prev == NONE)
+            heads[bucket] = next[i];
+        else
+            next[prev] = next[i];
+        release(i);
+        elements--;
+    }
 
-        return bucket;
+    /**
+     * Return the hash code of a key.
+     * @param k Key
+     * @return Hash code
+     * @throws IllegalArgumentException If the key is null
+     */
+    private static int hash(Object k) {
+        if (k == null)
+        {
+            throw new IllegalArgumentException();
+        }
+        return k.hashCode();
     }
+
     /**
-     * Puts entry in storage.
+     * Checks if an entry holds a key.
+     * @param i Entry
+     * @param hash Hash code of the key
      * @param k Key
+     * @return True if it does
+     */
+    private boolean matches(int i, int hash, K k) {
+        return hashes[i] == hash && keys[i].equals(k);
+    }
+
+    /**
+     * Adds an entry at the end of a chain.
+     * @param bucket Bucket of the key
+     * @param tail Tail of the chain from locate, or NONE if the chain is empty
+     * @param k Key
+     * @param hash Hash code of the key
      * @param v Value
      */
-    private void rehashPut(K k, V v) {
-        //Place value v at the location of key k.
-        //Use separate chaining if that location is in use.
-        //You may assume both k and v will not be null.
-        if (k == null || v == null)
+    private void insertAfter(int bucket, int tail, K k, int hash, Object v) {
+        int i = acquire();
+        keys[i] = k;
+        values[i] = v;
+        hashes[i] = hash;
+        next[i] = NONE;
+        if (tail == NONE)
+            heads[bucket] = i;
+        else
+            next[tail] = i;
+        elements++;
+        while (size() >= (getCapacity() * .8))
+            rehash(getCapacity() * 2);
+    }
+
+    /**
+     * Takes an entry from the free list, or a new one, growing the entry arrays when full.
+     * @return Entry
+     */
+    private int acquire() {
+        if (free != NONE)
         {
-            throw new IllegalArgumentException();
+            int i = free;
+            free = next[i];
+            return i;
         }
+        if (used == keys.length)
+        {
+            int grown = keys.length * 2;
+            keys = java.util.Arrays.copyOf(keys, grown);
+            values = java.util.Arrays.copyOf(values, grown);
+            hashes = java.util.Arrays.copyOf(hashes, grown);
+            next = java.util.Arrays.copyOf(next, grown);
+        }
+        return used++;
+    }
 
-        int bucket = findHashPosition(k);
+    /**
+     * Puts an unlinked entry on the free list.
+     * @param i Entry
+     */
+    private void release(int i) {
+        keys[i] = null;
+        values[i] = null;
+        next[i] = free;
+        free = i;
+    }
 
-        Node<K, V> node = new Node<>(new TableEntry<>(k,v));
-        Node<K, V> head = storage[bucket];
+    /**
+     * Return the mean number of entries a successful get walks.
+     * @return Probe length
+     */
+    public double averageProbeLength() {
+        if (size() == 0)
+        {
+            return 0;
+        }
+        long probes = 0;
+        for (int head : heads)
+        {
+            int depth = 1;
+            for (int i = head; i != NONE; i = next[i])
+                probes += depth++;
+        }
+        return (double) probes / size();
+    }
 
-        if (storage[bucket] == null)
+    /**
+     * Calls an action for every entry, in table order.
+     * @param action Action
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(java.util.function.BiConsumer<? super K, ? super V> action) {
+        for (int head : heads)
         {
-            storage[bucket] = node;
-            elements++;
-        }
-        else {
-            while (head.next != null) {
-                if (head.entry.getKey().equals(k)) {
-                    head.entry = node.entry;
-                }
-                head = head.next;
+            for (int i = head; i != NONE; i = next[i])
+                action.accept((K) keys[i], (V) values[i]);
+        }
+    }
+
+    /**
+     * Builds a read-only copy over a minimal perfect hash of the current keys.
+     * @return Frozen table
+     */
+    public FrozenTable<K,V> freeze() {
+        Object[] ks = new Object[size()];
+        Object[] vs = new Object[size()];
+        int n = 0;
+        for (int i = 0; i < used; i++)
+        {
+            //Entries on the free list have had their keys cleared.
+            if (keys[i] != null)
+            {
+                ks[n] = keys[i];
+                vs[n++] = values[i];
+            }
+        }
+        return new FrozenTable<>(ks, vs);
+    }
+
+    /**
+     * Rehashes storage.
+     * @param size New size
+     * @return True if successful
+     */
+    public boolean rehash(int size) {
+        //Increase or decrease the size of the storage,
+        //rehashing all values.
+        if (size < 1)
+        {
+            return false;
+        }
+        int[] oldHeads = heads;
+        heads = new int[size];
+        java.util.Arrays.fill(heads, NONE);
+
+        //Walk the old buckets backwards, reversing each chain, and push every
+        //entry onto the front of its new chain. Entries keep their old relative
+        //order and no entry is copied.
+        for (int bucket = oldHeads.length - 1; bucket >= 0; bucket--)
+        {
+            int reversed = NONE;
+            for (int i = oldHeads[bucket]; i != NONE; )
+            {
+                int after = next[i];
+                next[i] = reversed;
+                reversed = i;
+                i = after;
             }
-            if (head.entry.getKey().equals(k)) {
-                head.entry = node.entry;
-            } else {
-                head.next = node;
-                elements++;
+            for (int i = reversed; i != NONE; )
+            {
+                int after = next[i];
+                int target = findHashPosition(hashes[i]);
+                next[i] = heads[target];
+                heads[target] = i;
+                i = after;
             }
         }
+
+        return true;
+    }
+
+    /**
+     * Calculates hash position of a key.
+     * @param hash Hash code of the key
+     * @return Hash position
+     */
+    private int findHashPosition(int hash)
+    {
+        int bucket = hash % getCapacity();
+
+        if (bucket < 0)
+            bucket *= -1;
+
+        return bucket;
     }
 
     /**
@@ -325,47 +615,54 @@ class SeparateChain<K,V> {
                 System.out.println("Yay 11");
             }
         }
-    }
 
-    /**
-     * Node type.
-     * @param <K> Key
-     * @param <V> Value
-     */
-    public static class Node<K,V> {
-        /**
-         * Curr entry.
-         */
-        public TableEntry<K,V> entry;
-        /**
-         * Next Node.
-         */
-        public Node<K,V> next;
-
-        /**
-         * Node constructor.
-         * @param entry Entry
-         */
-        public Node(TableEntry<K,V> entry) {
-            this.entry = entry;
-        }
-
-        /**
-         * Node constructor.
-         * @param entry Entry
-         * @param next Next Node
-         */
-        public Node(TableEntry<K,V> entry, Node<K,V> next) {
-            this(entry);
-            this.next = next;
-        }
-
-        /**
-         * Node string rep.
-         * @return String
-         */
-        public String toString() {
-            return "[" + entry.toString() + "]->";
+        SeparateChain<String,Long> st4 = new SeparateChain<>(2);
+        st4.addTo("a", 2);
+        st4.addTo("a", 3);
+        st4.merge("b", 1L, Long::sum);
+        st4.merge("b", 1L, Long::sum);
+        if(st4.get("a") == 5L && st4.get("b") == 2L && st4.getOrDefault("c", 0L) == 0L && st4.putIfAbsent("c", 7L) == null && st4.putIfAbsent("c", 8L) == 7L
+                && st4.replace("d", 1L) == null && st4.replace("c", 9L) == 7L && st4.size() == 3) {
+            System.out.println("Yay 12");
+        }
+
+        st4.compute("a", (k, v) -> null);
+        st4.compute("e", (k, v) -> v == null ? 1L : v + 1);
+        if(st4.get("a") == null && st4.get("e") == 1L && st4.computeIfAbsent("e", k -> 5L) == 1L && st4.computeIfAbsent("f", k -> 6L) == 6L
+                && st4.merge("f", 0L, (a, b) -> null) == null && st4.get("f") == null && st4.size() == 3) {
+            System.out.println("Yay 13");
+        }
+
+        //1, 11 and 21 share bucket 1.
+        SeparateChain<Integer,String> st5 = new SeparateChain<>(10);
+        st5.put(1, "a");
+        st5.put(11, "b");
+        st5.put(21, "c");
+        st5.put(11, "d");
+        if(st5.size() == 3 && st5.get(11).equals("d") && st5.toString().equals("1:a\n11:d\n21:c")) {
+            System.out.println("Yay 14");
+        }
+
+        if(st5.remove(21).equals("c") && st5.get(21) == null && st5.size() == 2 && st5.remove(21) == null && st5.toString().equals("1:a\n11:d")) {
+            System.out.println("Yay 15");
+        }
+
+        //Removing through compute or merge unlinks from the middle and head of a chain.
+        st5.put(21, "c");
+        if(st5.compute(11, (k, v) -> null) == null && st5.merge(1, "x", (a, b) -> null) == null && st5.size() == 1
+                && st5.toString().equals("21:c") && st5.get(21).equals("c") && st5.get(1) == null) {
+            System.out.println("Yay 16");
+        }
+
+        boolean rejected = false;
+        try {
+            st5.compute(null, (k, v) -> "n");
+        }
+        catch(IllegalArgumentException e) {
+            rejected = true;
+        }
+        if(rejected && st5.size() == 1) {
+            System.out.println("Yay 17");
         }
     }
 
@@ -375,14 +672,10 @@ class SeparateChain<K,V> {
      */
     public String toString() {
         StringBuilder s = new StringBuilder();
-        for(int i = 0; i < storage.length; i++) {
-            Node<K,V> curr = storage[i];
-            if(curr == null) continue;
-
-            while(curr != null) {
-                s.append(curr.entry.toString());
+        for(int i = 0; i < heads.length; i++) {
+            for(int curr = heads[i]; curr != NONE; curr = next[curr]) {
+                s.append(keys[curr] + ":" + values[curr]);
                 s.append("\n");
-                curr = curr.next;
             }
         }
         return s.toString().trim();
@@ -394,13 +687,10 @@ class SeparateChain<K,V> {
      */
     public String toStringDebug() {
         StringBuilder s = new StringBuilder();
-        for(int i = 0; i < storage.length; i++) {
-            Node<K,V> curr = storage[i];
-
+        for(int i = 0; i < heads.length; i++) {
             s.append("[" + i + "]: ");
-            while(curr != null) {
-                s.append(curr.toString());
-                curr = curr.next;
+            for(int curr = heads[i]; curr != NONE; curr = next[curr]) {
+                s.append("[" + keys[curr] + ":" + values[curr] + "]->");
             }
             s.append("null\n");
         }
@@ -0,0 +1,64 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts keys or values to and from bytes.
+ * Equal objects must produce equal bytes, since stored keys are matched by their bytes.
+ * @param <T> Type
+ */
+interface Serializer<T> {
+    /**
+     * UTF-8 strings.
+     */
+    Serializer<String> STRING = new Serializer<>() {
+        public byte[] toBytes(String s) {
+            return s.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public String fromBytes(byte[] bytes, int offset, int length) {
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Big-endian ints.
+     */
+    Serializer<Integer> INTEGER = new Serializer<>() {
+        public byte[] toBytes(Integer i) {
+            return ByteBuffer.allocate(4).putInt(i).array();
+        }
+
+        public Integer fromBytes(byte[] bytes, int offset, int length) {
+            return ByteBuffer.wrap(bytes, offset, length).getInt();
+        }
+    };
+
+    /**
+     * Big-endian longs.
+     */
+    Serializer<Long> LONG = new Serializer<>() {
+        public byte[] toBytes(Long l) {
+            return ByteBuffer.allocate(8).putLong(l).array();
+        }
+
+        public Long fromBytes(byte[] bytes, int offset, int length) {
+            return ByteBuffer.wrap(bytes, offset, length).getLong();
+        }
+    };
+
+    /**
+     * Converts an object to bytes.
+     * @param t Object
+     * @return Bytes
+     */
+    byte[] toBytes(T t);
+
+    /**
+     * Converts bytes back to an object.
+     * @param bytes Array holding the bytes
+     * @param offset Start
+     * @param length Length
+     * @return Object
+     */
+    T fromBytes(byte[] bytes, int offset, int length);
+}
@@ -0,0 +1,665 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Table partitioned by key hash into shards, each owned by a single thread.
+ * Callers from any thread enqueue requests on a lock-free bounded ring; a shard's table is only ever
+ * touched by its own thread.
+ * @param <K> Key
+ * @param <V> Value
+ */
+class ShardedTable<K,V> implements AutoCloseable {
+    /**
+     * Most requests a shard runs per drain of its queue.
+     */
+    private static final int MAX_BATCH = 256;
+
+    /**
+     * Shards, by index.
+     */
+    private final Shard<K,V>[] shards;
+
+    /**
+     * Set once close is called.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Sharded table constructor, starts one thread per shard.
+     * @param count Number of shards
+     * @param useTable1 Use Open Addressing, else Separate Chaining
+     * @param queueSize Bound of each shard's request queue
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedTable(int count, boolean useTable1, int queueSize) {
+        if (count < 1 || queueSize < 1)
+        {
+            throw new IllegalArgumentException();
+        }
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++)
+        {
+            shards[i] = new Shard<>(useTable1, queueSize);
+            Thread thread = new Thread(shards[i]::run, "shard-" + i);
+            thread.setDaemon(true);
+            shards[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Return the number of shards.
+     * @return Shards
+     */
+    public int getShards() {
+        return shards.length;
+    }
+
+    /**
+     * Return the number of elements, as of each shard's last completed request.
+     * @return Number of elements.
+     */
+    public int size() {
+        int size = 0;
+        for (Shard<K,V> shard : shards)
+            size += shard.size;
+        return size;
+    }
+
+    /**
+     * Puts entry in its shard.
+     * @param k Key
+     * @param v Value
+     * @return Completes once stored
+     */
+    public CompletableFuture<Void> put(K k, V v) {
+        if (k == null || v == null)
+        {
+            throw new IllegalArgumentException();
+        }
+        Shard<K,V> shard = shardOf(k);
+        return submit(shard, () -> {
+            shard.put(k, v);
+            return null;
+        });
+    }
+
+    /**
+     * Given a key, return the value from its shard.
+     * @param k Key
+     * @return Value, or null if absent
+     */
+    public CompletableFuture<V> get(K k) {
+        Shard<K,V> shard = shardOf(k);
+        return submit(shard, () -> shard.get(k));
+    }
+
+    /**
+     * Remove the given key (and associated value) from its shard.
+     * @param k Key
+     * @return Removed value, or null if absent
+     */
+    public CompletableFuture<V> remove(K k) {
+        Shard<K,V> shard = shardOf(k);
+        return submit(shard, () -> shard.remove(k));
+    }
+
+    /**
+     * Gets many keys with one request per shard.
+     * @param keys Keys
+     * @return Values of the keys that are present
+     */
+    public CompletableFuture<Map<K,V>> getAll(Iterable<K> keys) {
+        List<List<K>> split = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++)
+            split.add(new ArrayList<>());
+        for (K k : keys)
+            split.get(indexOf(k)).add(k);
+
+        List<CompletableFuture<Map<K,V>>> parts = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++)
+        {
+            List<K> part = split.get(i);
+            if (part.isEmpty())
+                continue;
+            Shard<K,V> shard = shards[i];
+            parts.add(submit(shard, () -> {
+                Map<K,V> found = new HashMap<>();
+                for (K k : part)
+                {
+                    V v = shard.get(k);
+                    if (v != null)
+                        found.put(k, v);
+                }
+                return found;
+            }));
+        }
+
+        //Merged on the common pool rather than on whichever shard thread finishes last.
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApplyAsync(done -> {
+            Map<K,V> merged = new HashMap<>();
+            for (CompletableFuture<Map<K,V>> part : parts)
+                merged.putAll(part.join());
+            return merged;
+        });
+    }
+
+    /**
+     * Puts many entries with one request per shard.
+     * @param entries Entries
+     * @return Completes once every entry is stored
+     */
+    public CompletableFuture<Void> putAll(Map<K,V> entries) {
+        List<List<TableEntry<K,V>>> split = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++)
+            split.add(new ArrayList<>());
+        for (Map.Entry<K,V> e : entries.entrySet())
+        {
+            if (e.getKey() == null || e.getValue() == null)
+            {
+                throw new IllegalArgumentException();
+            }
+            split.get(indexOf(e.getKey())).add(new TableEntry<>(e.getKey(), e.getValue()));
+        }
+
+        List<CompletableFuture<Void>> parts = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++)
+        {
+            List<TableEntry<K,V>> part = split.get(i);
+            if (part.isEmpty())
+                continue;
+            Shard<K,V> shard = shards[i];
+            parts.add(submit(shard, () -> {
+                for (TableEntry<K,V> e : part)
+                    shard.put(e.getKey(), e.getValue());
+                return null;
+            }));
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Stops every shard thread after it finishes the requests queued before this call;
+     * requests that arrive later fail with IllegalStateException.
+     */
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        for (Shard<K,V> shard : shards)
+            shard.offer(Shard.STOP);
+        boolean interrupted = false;
+        for (Shard<K,V> shard : shards)
+        {
+            while (shard.thread.isAlive())
+            {
+                try
+                {
+                    shard.thread.join();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Queues a request on a shard unless the table is closed.
+     * @param <R> Result
+     * @param shard Shard
+     * @param op Request, run on the shard thread
+     * @return Result of the request
+     */
+    private <R> CompletableFuture<R> submit(Shard<K,V> shard, Supplier<R> op) {
+        if (closed)
+        {
+            return CompletableFuture.failedFuture(new IllegalStateException("Table is closed"));
+        }
+        return shard.submit(op);
+    }
+
+    /**
+     * Finds the shard of a key.
+     * @param k Key
+     * @return Shard
+     */
+    private Shard<K,V> shardOf(K k) {
+        return shards[indexOf(k)];
+    }
+
+    /**
+     * Calculates the shard index of a key, using the high bits of a spread hash
+     * so they don't correlate with the bucket a shard's table picks.
+     * @param k Key
+     * @return Shard index
+     */
+    private int indexOf(K k) {
+        if (k == null)
+        {
+            throw new IllegalArgumentException();
+        }
+        int h = k.hashCode() * 0x9E3779B9;
+        return (int) (((h >>> 1) * (long) shards.length) >>> 31);
+    }
+
+    /**
+     * A queued request and its result.
+     * @param <R> Result
+     */
+    private static final class Request<R> {
+        /**
+         * Work, or null for STOP.
+         */
+        final Supplier<R> op;
+
+        /**
+         * Result.
+         */
+        final CompletableFuture<R> result = new CompletableFuture<>();
+
+        /**
+         * Request constructor.
+         * @param op Work
+         */
+        Request(Supplier<R> op) {
+            this.op = op;
+        }
+
+        /**
+         * Fails a request that will never run.
+         */
+        void reject() {
+            result.completeExceptionally(new IllegalStateException("Table is closed"));
+        }
+    }
+
+    /**
+     * Bounded multi-producer, single-consumer ring buffer without locks (Vyukov's bounded queue).
+     * Each cell has a sequence number: producers claim a cell by CAS on the tail once its sequence
+     * says it is free, then publish it by advancing the sequence; the one consumer reads cells in
+     * order without any CAS.
+     * @param <E> Element
+     */
+    private static final class Ring<E> {
+        /**
+         * Cells.
+         */
+        private final AtomicReferenceArray<E> items;
+
+        /**
+         * Sequence of each cell: its index when free for the producer at that index, index + 1 once filled.
+         */
+        private final AtomicLongArray sequences;
+
+        /**
+         * Next index for producers.
+         */
+        private final AtomicLong tail = new AtomicLong();
+
+        /**
+         * Next index for the consumer; only the consumer touches it.
+         */
+        private long head = 0;
+
+        /**
+         * Ring constructor.
+         * @param capacity Bound
+         */
+        Ring(int capacity) {
+            items = new AtomicReferenceArray<>(capacity);
+            sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++)
+                sequences.set(i, i);
+        }
+
+        /**
+         * Adds an element if there is room; any thread.
+         * @param e Element
+         * @return False if full
+         */
+        boolean offer(E e) {
+            while (true)
+            {
+                long t = tail.get();
+                int cell = (int) (t % items.length());
+                long gap = sequences.get(cell) - t;
+                if (gap == 0)
+                {
+                    if (tail.compareAndSet(t, t + 1))
+                    {
+                        items.set(cell, e);
+                        sequences.set(cell, t + 1);
+                        return true;
+                    }
+                }
+                else if (gap < 0)
+                {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Takes the oldest element; consumer thread only.
+         * @return Element, or null if empty
+         */
+        E poll() {
+            int cell = (int) (head % items.length());
+            if (sequences.get(cell) != head + 1)
+                return null;
+            E e = items.get(cell);
+            items.set(cell, null);
+            sequences.set(cell, head + items.length());
+            head++;
+            return e;
+        }
+    }
+
+    /**
+     * One partition with its table, queue and thread.
+     * @param <K> Key
+     * @param <V> Value
+     */
+    private static class Shard<K,V> {
+        /**
+         * Request that stops the shard thread.
+         */
+        static final Request<Void> STOP = new Request<>(null);
+
+        /**
+         * Longest a producer waits for room before checking again.
+         */
+        private static final long MAX_BACKOFF = 1_000_000;
+
+        /**
+         * Open Addressing table, if used.
+         */
+        final OpenAddress<K,V> table1;
+
+        /**
+         * Separate Chaining table, if used.
+         */
+        final SeparateChain<K,V> table2;
+
+        /**
+         * Bounded queue of requests from any thread.
+         */
+        final Ring<Request<?>> queue;
+
+        /**
+         * Set while the shard thread is about to park on an empty queue.
+         */
+        volatile boolean sleeping = false;
+
+        /**
+         * Set once the shard thread has taken STOP; nothing queued after that runs.
+         */
+        volatile boolean stopped = false;
+
+        /**
+         * Number of elements as of the last completed request.
+         */
+        volatile int size = 0;
+
+        /**
+         * Thread that owns the table.
+         */
+        Thread thread;
+
+        /**
+         * Shard constructor.
+         * @param useTable1 Use Open Addressing, else Separate Chaining
+         * @param queueSize Bound of the request queue
+         */
+        Shard(boolean useTable1, int queueSize) {
+            table1 = useTable1 ? new OpenAddress<>(2) : null;
+            table2 = useTable1 ? null : new SeparateChain<>(2);
+            queue = new Ring<>(queueSize);
+        }
+
+        /**
+         * Queues a request, waiting for room if the queue is full.
+         * @param <R> Result
+         * @param op Request, run on the shard thread
+         * @return Result of the request
+         */
+        <R> CompletableFuture<R> submit(Supplier<R> op) {
+            Request<R> request = new Request<>(op);
+            offer(request);
+            return request.result;
+        }
+
+        /**
+         * Queues a request, parking with backoff while the queue is full, and wakes the shard thread.
+         * If the shard has stopped, the request is failed here, since its final drain may have missed it.
+         * @param request Request
+         */
+        void offer(Request<?> request) {
+            long backoff = 1_000;
+            while (!queue.offer(request))
+            {
+                if (stopped)
+                {
+                    request.reject();
+                    return;
+                }
+                LockSupport.parkNanos(backoff);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            }
+            if (stopped)
+                request.reject();
+            else if (sleeping)
+                LockSupport.unpark(thread);
+        }
+
+        /**
+         * Runs requests a batch at a time until stopped, then fails whatever is left.
+         */
+        void run() {
+            while (true)
+            {
+                Request<?> request = queue.poll();
+                if (request == null)
+                {
+                    //Publish the flag before checking again, so a producer that misses it
+                    //has already made its request visible.
+                    sleeping = true;
+                    request = queue.poll();
+                    if (request == null)
+                    {
+                        LockSupport.park(this);
+                        sleeping = false;
+                        continue;
+                    }
+                    sleeping = false;
+                }
+                for (int n = 0; request != null; request = n < MAX_BATCH ? queue.poll() : null)
+                {
+                    if (request == STOP)
+                    {
+                        stopped = true;
+                        while ((request = queue.poll()) != null)
+                            request.reject();
+                        return;
+                    }
+                    execute(request);
+                    n++;
+                }
+            }
+        }
+
+        /**
+         * Runs one request and completes its result.
+         * @param <R> Result
+         * @param request Request
+         */
+        private <R> void execute(Request<R> request) {
+            try
+            {
+                R r = request.op.get();
+                size = table1 != null ? table1.size() : table2.size();
+                request.result.complete(r);
+            }
+            catch (Throwable e)
+            {
+                request.result.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Puts entry in the table.
+         * @param k Key
+         * @param v Value
+         */
+        void put(K k, V v) {
+            if (table1 != null) table1.put(k, v);
+            else table2.put(k, v);
+        }
+
+        /**
+         * Given a key, return the value from the table.
+         * @param k Key
+         * @return Value
+         */
+        V get(K k) {
+            return table1 != null ? table1.get(k) : table2.get(k);
+        }
+
+        /**
+         * Remove the given key from the table.
+         * @param k Key
+         * @return Value
+         */
+        V remove(K k) {
+            return table1 != null ? table1.remove(k) : table2.remove(k);
+        }
+    }
+
+    /**
+     * Testing code.
+     * @param args args
+     * @throws Exception on failure
+     */
+    public static void main(String[] args) throws Exception {
+        for (boolean useTable1 : new boolean[] {true, false}) {
+            try(ShardedTable<String,Integer> st1 = new ShardedTable<>(4, useTable1, 1024)) {
+                st1.put("a", 1);
+                st1.put("b", 2);
+                st1.put("a", 3).join();
+
+                if(st1.getShards() == 4 && st1.get("a").join().equals(3) && st1.get("b").join().equals(2) && st1.get("c").join() == null) {
+                    System.out.println("Yay 1");
+                }
+
+                Map<String,Integer> many = new HashMap<>();
+                for(int i = 0; i < 1000; i++) {
+                    many.put("k" + i, i);
+                }
+                st1.putAll(many).join();
+                Map<String,Integer> got = st1.getAll(many.keySet()).join();
+                if(got.equals(many)) {
+                    System.out.println("Yay 2");
+                }
+
+                if(st1.remove("a").join().equals(3) && st1.remove("a").join() == null && st1.get("b").join().equals(2)) {
+                    System.out.println("Yay 3");
+                }
+
+                Thread[] writers = new Thread[4];
+                for(int t = 0; t < writers.length; t++) {
+                    int id = t;
+                    writers[t] = new Thread(() -> {
+                        CompletableFuture<?>[] puts = new CompletableFuture<?>[10000];
+                        for(int i = 0; i < puts.length; i++) {
+                            puts[i] = st1.put("w" + id + "-" + i, i);
+                        }
+                        CompletableFuture.allOf(puts).join();
+                    });
+                    writers[t].start();
+                }
+                for(Thread w : writers) {
+                    w.join();
+                }
+                if(st1.get("w3-9999").join().equals(9999) && st1.size() == 1 + 1000 + 40000) {
+                    System.out.println("Yay 4");
+                }
+            }
+        }
+
+        //Requests racing close either run or fail; none is left pending.
+        ShardedTable<Integer,Integer> st2 = new ShardedTable<>(2, false, 2);
+        List<CompletableFuture<Void>> racing = java.util.Collections.synchronizedList(new ArrayList<>());
+        Thread[] racers = new Thread[4];
+        for(int t = 0; t < racers.length; t++) {
+            int id = t;
+            racers[t] = new Thread(() -> {
+                for(int i = 0; i < 20000; i++) {
+                    racing.add(st2.put(id * 20000 + i, i));
+                }
+            });
+            racers[t].start();
+        }
+        Thread.sleep(5);
+        st2.close();
+        for(Thread r : racers) {
+            r.join();
+        }
+        boolean settled = true;
+        int rejected = 0;
+        for(CompletableFuture<Void> f : racing) {
+            try {
+                f.get(5, java.util.concurrent.TimeUnit.SECONDS);
+            }
+            catch(java.util.concurrent.ExecutionException e) {
+                settled &= e.getCause() instanceof IllegalStateException;
+                rejected++;
+            }
+            catch(java.util.concurrent.TimeoutException e) {
+                settled = false;
+            }
+        }
+        if(settled && rejected > 0 && st2.get(1).isCompletedExceptionally()) {
+            System.out.println("Yay 5");
+        }
+
+        //Every instance has hash code 0 and throws from equals, so the second put on a shard throws an Error.
+        class Hostile {
+            @Override
+            public int hashCode() {
+                return 0;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                throw new AssertionError("equals");
+            }
+        }
+        try(ShardedTable<Object,Integer> st3 = new ShardedTable<>(1, false, 16)) {
+            st3.put(new Hostile(), 1).join();
+            CompletableFuture<Void> failed = st3.put(new Hostile(), 2);
+            boolean error = false;
+            try {
+                failed.join();
+            }
+            catch(java.util.concurrent.CompletionException e) {
+                error = e.getCause() instanceof AssertionError;
+            }
+            st3.put("after", 3);
+            if(error && st3.get("after").get(5, java.util.concurrent.TimeUnit.SECONDS).equals(3)) {
+                System.out.println("Yay 6");
+            }
+        }
+    }
+}
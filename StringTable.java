@@ -0,0 +1,826 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Open Addressing with Linear Probing Table specialized for String keys and values.
+ * Keys and values are kept as UTF-8 records back to back in an arena of byte pages: the key and value
+ * byte lengths as varints, then the key, then the value. A slot is one long packing the record's offset
+ * with a fragment of the key hash, so an entry costs no objects and a miss rarely touches the arena.
+ */
+class StringTable {
+    /**
+     * Bits of an arena offset that address a byte within a page.
+     */
+    private static final int PAGE_BITS = 24;
+
+    /**
+     * Largest page, which bounds a single record.
+     */
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    /**
+     * Bits of a slot holding a fragment of the key hash; the rest hold the record offset plus one.
+     */
+    private static final int FRAGMENT_BITS = 24;
+
+    /**
+     * Mask of the hash fragment in a slot.
+     */
+    private static final long FRAGMENT_MASK = (1L << FRAGMENT_BITS) - 1;
+
+    /**
+     * Slot that has never been used.
+     */
+    private static final long EMPTY = 0;
+
+    /**
+     * Removed slot.
+     */
+    private static final long TOMBSTONE = -1;
+
+    /**
+     * Smallest arena that is compacted for garbage.
+     */
+    private static final long MIN_COMPACT = 1 << 16;
+
+    /**
+     * Arena pages; every page but the last is full.
+     */
+    private byte[][] pages = new byte[1][256];
+
+    /**
+     * Bytes used in the last page.
+     */
+    private int pageUsed = 0;
+
+    /**
+     * Arena bytes no longer referenced by a slot.
+     */
+    private long garbage = 0;
+
+    /**
+     * Record offset and hash fragment per slot, or EMPTY or TOMBSTONE.
+     */
+    private long[] slots;
+
+    /**
+     * Number of elements.
+     */
+    private int elements = 0;
+
+    /**
+     * Number of tombstones.
+     */
+    private int tombstones = 0;
+
+    /**
+     * UTF-8 bytes of the key being looked up.
+     */
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Length of the key in scratch.
+     */
+    private int scratchLength;
+
+    /**
+     * Position in its page of the key of the record last read by readRecord.
+     */
+    private int recordKey;
+
+    /**
+     * Key byte length of the record last read by readRecord.
+     */
+    private int recordKeyLength;
+
+    /**
+     * Value byte length of the record last read by readRecord.
+     */
+    private int recordValueLength;
+
+    /**
+     * Bytes taken by the value length varint of the record last read by readRecord.
+     */
+    private int recordValueLengthBytes;
+
+    /**
+     * Hashtable constructor.
+     * @param size Size of table, rounded up to a power of two
+     */
+    public StringTable(int size) {
+        allocate(size);
+    }
+
+    /**
+     * Return how many "slots" are in the table.
+     * @return Capacity
+     */
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * Return the number of elements in the table.
+     * @return Number of elements.
+     */
+    public int size() {
+        return elements;
+    }
+
+    /**
+     * Return the bytes held by the arena, including unreferenced ones.
+     * @return Arena bytes
+     */
+    public long arenaBytes() {
+        return (long) (pages.length - 1) * PAGE_SIZE + pageUsed;
+    }
+
+    /**
+     * Puts entry in storage.
+     * @param k Key
+     * @param v Value
+     */
+    public void put(String k, String v) {
+        if (k == null || v == null)
+        {
+            throw new IllegalArgumentException();
+        }
+
+        int hash = encodeKey(k);
+        byte[] value = v.getBytes(StandardCharsets.UTF_8);
+        int slot = find(hash);
+        if (slot >= 0)
+        {
+            long offset = offsetOf(slot);
+            byte[] page = page(offset);
+            readRecord(offset);
+            if (value.length <= recordValueLength)
+            {
+                //Overwrite a value in place when the new one fits, keeping the width of its length.
+                int valueStart = recordKey + recordKeyLength;
+                writeVarint(page, valueStart - recordKeyLength - recordValueLengthBytes, value.length, recordValueLengthBytes);
+                System.arraycopy(value, 0, page, valueStart, value.length);
+                garbage += recordValueLength - value.length;
+            }
+            else
+            {
+                garbage += recordKey - index(offset) + recordKeyLength + recordValueLength;
+                slots[slot] = slot(append(value), hash);
+            }
+            compactIfWasteful();
+            return;
+        }
+
+        slot = -slot - 1;
+        if (slots[slot] == TOMBSTONE)
+            tombstones--;
+        slots[slot] = slot(append(value), hash);
+        elements++;
+        if ((elements + tombstones) * 4L >= getCapacity() * 3L)
+            rehash(elements * 4 >= getCapacity() * 3 / 2 ? getCapacity() * 2 : getCapacity());
+    }
+
+    /**
+     * Remove the given key (and associated value) from the table.
+     * @param k Key
+     * @return Value in the table if not null
+     */
+    public String remove(String k) {
+        if (k == null)
+        {
+            return null;
+        }
+        int slot = find(encodeKey(k));
+        if (slot < 0)
+        {
+            return null;
+        }
+        String val = decode(slot);
+        garbage += recordKey - index(offsetOf(slot)) + recordKeyLength + recordValueLength;
+        slots[slot] = TOMBSTONE;
+        elements--;
+        tombstones++;
+        compactIfWasteful();
+        return val;
+    }
+
+    /**
+     * Given a key, return the value from the table.
+     * @param k Key
+     * @return Value
+     */
+    public String get(String k) {
+        if (k == null)
+        {
+            return null;
+        }
+        int slot = find(encodeKey(k));
+        return slot < 0 ? null : decode(slot);
+    }
+
+    /**
+     * Given a key, return a view of the value's bytes in the arena without creating a String.
+     * The view is only valid until the table is next changed.
+     * @param k Key
+     * @return Value
+     */
+    public CharSequence getView(CharSequence k) {
+        if (k == null)
+        {
+            return null;
+        }
+        int slot = find(encodeKey(k));
+        if (slot < 0)
+        {
+            return null;
+        }
+        long offset = offsetOf(slot);
+        readRecord(offset);
+        return new Utf8View(page(offset), recordKey + recordKeyLength, recordValueLength);
+    }
+
+    /**
+     * Checks location if there is a tombstone.
+     * @param loc Location
+     * @return True if there is a tombstone at given index
+     */
+    public boolean isTombstone(int loc) {
+        return slots[loc] == TOMBSTONE;
+    }
+
+    /**
+     * Rehashes storage, copying live records into a fresh arena.
+     * @param size New size, rounded up to a power of two
+     * @return if successful
+     */
+    public boolean rehash(int size) {
+        if (size < (size() + 1))
+        {
+            return false;
+        }
+        long[] oldSlots = slots;
+        byte[][] oldPages = pages;
+        long live = arenaBytes() - garbage;
+
+        allocate(size);
+        pages = new byte[1][(int) Math.max(256, Math.min(PAGE_SIZE, live))];
+        pageUsed = 0;
+        garbage = 0;
+        tombstones = 0;
+
+        for (long old : oldSlots)
+        {
+            if (old == EMPTY || old == TOMBSTONE)
+                continue;
+            long oldOffset = (old >>> FRAGMENT_BITS) - 1;
+            byte[] oldPage = oldPages[(int) (oldOffset >>> PAGE_BITS)];
+            readRecord(oldPage, index(oldOffset));
+            int length = recordKey - index(oldOffset) + recordKeyLength + recordValueLength;
+            long offset = reserve(length);
+            System.arraycopy(oldPage, index(oldOffset), page(offset), index(offset), length);
+
+            int hash = hashBytes(oldPage, recordKey, recordKeyLength);
+            int slot = spread(hash) & (getCapacity() - 1);
+            while (slots[slot] != EMPTY)
+                slot = (slot + 1) & (getCapacity() - 1);
+            slots[slot] = slot(offset, hash);
+        }
+        return true;
+    }
+
+    /**
+     * Compacts the arena once more than half of it is garbage, so overwrites that don't fit
+     * in place and removes can't grow it without bound.
+     */
+    private void compactIfWasteful() {
+        long bytes = arenaBytes();
+        if (bytes >= MIN_COMPACT && garbage * 2 > bytes)
+            rehash(getCapacity());
+    }
+
+    /**
+     * Creates empty slots for at least the given size.
+     * @param size Minimum number of slots
+     */
+    private void allocate(int size) {
+        int capacity = 2;
+        while (capacity < size || (elements + 1) * 4L > capacity * 3L)
+            capacity <<= 1;
+        slots = new long[capacity];
+    }
+
+    /**
+     * Finds the slot of the key in scratch.
+     * @param hash Hash of the key
+     * @return Slot of the key, or -(first free slot) - 1 if absent
+     */
+    private int find(int hash) {
+        int mask = getCapacity() - 1;
+        int slot = spread(hash) & mask;
+        long fragment = fragment(hash);
+        int free = -1;
+
+        for (int probed = 0; probed < getCapacity(); probed++)
+        {
+            long entry = slots[slot];
+            if (entry == EMPTY)
+            {
+                return -(free == -1 ? slot : free) - 1;
+            }
+            else if (entry == TOMBSTONE)
+            {
+                if (free == -1)
+                    free = slot;
+            }
+            else if ((entry & FRAGMENT_MASK) == fragment)
+            {
+                long offset = offsetOf(slot);
+                byte[] page = page(offset);
+                readRecord(page, index(offset));
+                if (recordKeyLength == scratchLength
+                        && Arrays.equals(page, recordKey, recordKey + scratchLength, scratch, 0, scratchLength))
+                    return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -free - 1;
+    }
+
+    /**
+     * Appends a record of the key in scratch and a value to the arena.
+     * @param value Value bytes
+     * @return Offset of the record
+     */
+    private long append(byte[] value) {
+        int header = varintLength(scratchLength) + varintLength(value.length);
+        long offset = reserve(header + scratchLength + value.length);
+        byte[] page = page(offset);
+        int at = index(offset);
+        at = writeVarint(page, at, scratchLength, varintLength(scratchLength));
+        at = writeVarint(page, at, value.length, varintLength(value.length));
+        System.arraycopy(scratch, 0, page, at, scratchLength);
+        System.arraycopy(value, 0, page, at + scratchLength, value.length);
+        return offset;
+    }
+
+    /**
+     * Reserves room for a record, growing the last page or starting a new one.
+     * @param length Record length
+     * @return Offset of the record
+     */
+    private long reserve(int length) {
+        if (length > PAGE_SIZE)
+        {
+            throw new IllegalArgumentException("Key and value exceed " + PAGE_SIZE + " bytes");
+        }
+        byte[] last = pages[pages.length - 1];
+        if (pageUsed + length > last.length)
+        {
+            if (pageUsed + length <= PAGE_SIZE)
+            {
+                int grown = last.length;
+                while (grown < pageUsed + length)
+                    grown *= 2;
+                pages[pages.length - 1] = Arrays.copyOf(last, Math.min(grown, PAGE_SIZE));
+            }
+            else
+            {
+                //Pad the full page out so every page but the last is PAGE_SIZE bytes.
+                pages[pages.length - 1] = Arrays.copyOf(last, PAGE_SIZE);
+                garbage += PAGE_SIZE - pageUsed;
+                pages = Arrays.copyOf(pages, pages.length + 1);
+                pages[pages.length - 1] = new byte[Math.max(Integer.highestOneBit(length) * 2, 1 << 16)];
+                pageUsed = 0;
+            }
+        }
+        long offset = ((long) (pages.length - 1) << PAGE_BITS) | pageUsed;
+        pageUsed += length;
+        return offset;
+    }
+
+    /**
+     * Packs a record offset and a key hash into a slot.
+     * @param offset Arena offset
+     * @param hash Key hash
+     * @return Slot value
+     */
+    private static long slot(long offset, int hash) {
+        return (offset + 1) << FRAGMENT_BITS | fragment(hash);
+    }
+
+    /**
+     * Return the record offset of a live slot.
+     * @param slot Slot
+     * @return Arena offset
+     */
+    private long offsetOf(int slot) {
+        return (slots[slot] >>> FRAGMENT_BITS) - 1;
+    }
+
+    /**
+     * Return the bits of a key hash kept in its slot, taken from different bits than the slot index.
+     * @param hash Key hash
+     * @return Fragment
+     */
+    private static long fragment(int hash) {
+        return ((hash * 0x85EBCA6B) >>> (32 - FRAGMENT_BITS)) & FRAGMENT_MASK;
+    }
+
+    /**
+     * Reads the header of a record into recordKey, recordKeyLength and recordValueLength.
+     * @param offset Arena offset
+     */
+    private void readRecord(long offset) {
+        readRecord(page(offset), index(offset));
+    }
+
+    /**
+     * Reads the header of a record into recordKey, recordKeyLength and recordValueLength.
+     * @param page Page
+     * @param at Position of the record
+     */
+    private void readRecord(byte[] page, int at) {
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do
+        {
+            b = page[at++];
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        recordKeyLength = length;
+
+        int start = at;
+        length = 0;
+        shift = 0;
+        do
+        {
+            b = page[at++];
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        recordValueLength = length;
+        recordValueLengthBytes = at - start;
+        recordKey = at;
+    }
+
+    /**
+     * Writes a varint padded to a width, since a record's value length must keep its width when overwritten.
+     * @param page Page
+     * @param at Position
+     * @param value Value
+     * @param width Bytes to write, at least varintLength(value)
+     * @return Position after the varint
+     */
+    private static int writeVarint(byte[] page, int at, int value, int width) {
+        for (int i = 1; i < width; i++)
+        {
+            page[at++] = (byte) (0x80 | value & 0x7F);
+            value >>>= 7;
+        }
+        page[at++] = (byte) value;
+        return at;
+    }
+
+    /**
+     * Return the bytes a varint takes.
+     * @param value Value
+     * @return Bytes
+     */
+    private static int varintLength(int value) {
+        int n = 1;
+        while ((value >>>= 7) != 0)
+            n++;
+        return n;
+    }
+
+    /**
+     * Finds the page of an offset.
+     * @param offset Arena offset
+     * @return Page
+     */
+    private byte[] page(long offset) {
+        return pages[(int) (offset >>> PAGE_BITS)];
+    }
+
+    /**
+     * Finds the position of an offset in its page.
+     * @param offset Arena offset
+     * @return Index
+     */
+    private static int index(long offset) {
+        return (int) offset & (PAGE_SIZE - 1);
+    }
+
+    /**
+     * Decodes the value of a slot.
+     * @param slot Slot
+     * @return Value
+     */
+    private String decode(int slot) {
+        long offset = offsetOf(slot);
+        readRecord(offset);
+        return new String(page(offset), recordKey + recordKeyLength, recordValueLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes a key into scratch as UTF-8 and hashes its bytes.
+     * @param k Key
+     * @return Hash
+     */
+    private int encodeKey(CharSequence k) {
+        int length = k.length();
+        if (scratch.length < length * 3)
+            scratch = new byte[length * 3];
+
+        int n = 0;
+        for (int i = 0; i < length; i++)
+        {
+            char c = k.charAt(i);
+            if (c < 0x80)
+            {
+                scratch[n++] = (byte) c;
+            }
+            else if (c < 0x800)
+            {
+                scratch[n++] = (byte) (0xC0 | c >> 6);
+                scratch[n++] = (byte) (0x80 | c & 0x3F);
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(k.charAt(i + 1)))
+            {
+                int cp = Character.toCodePoint(c, k.charAt(++i));
+                scratch[n++] = (byte) (0xF0 | cp >> 18);
+                scratch[n++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                scratch[n++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                scratch[n++] = (byte) (0x80 | cp & 0x3F);
+            }
+            else if (Character.isSurrogate(c))
+            {
+                //Unpaired surrogates encode as '?', as String.getBytes does.
+                scratch[n++] = '?';
+            }
+            else
+            {
+                scratch[n++] = (byte) (0xE0 | c >> 12);
+                scratch[n++] = (byte) (0x80 | c >> 6 & 0x3F);
+                scratch[n++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        scratchLength = n;
+        return hashBytes(scratch, 0, n);
+    }
+
+    /**
+     * Hashes UTF-8 key bytes.
+     * @param bytes Bytes
+     * @param from Start
+     * @param length Length
+     * @return Hash
+     */
+    private static int hashBytes(byte[] bytes, int from, int length) {
+        int hash = 0;
+        for (int i = from; i < from + length; i++)
+            hash = hash * 31 + bytes[i];
+        return hash;
+    }
+
+    /**
+     * Spreads a hash so the low bits used for the slot vary.
+     * @param hash Hash
+     * @return Spread hash
+     */
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Character view of UTF-8 bytes, decoded only if they aren't all ASCII.
+     */
+    private static class Utf8View implements CharSequence {
+        /**
+         * Page holding the bytes.
+         */
+        private final byte[] bytes;
+
+        /**
+         * Start of the bytes.
+         */
+        private final int start;
+
+        /**
+         * Byte length.
+         */
+        private final int length;
+
+        /**
+         * Decoded characters, if not ASCII.
+         */
+        private String decoded;
+
+        /**
+         * View constructor.
+         * @param bytes Page
+         * @param start Start
+         * @param length Byte length
+         */
+        Utf8View(byte[] bytes, int start, int length) {
+            this.bytes = bytes;
+            this.start = start;
+            this.length = length;
+            for (int i = start; i < start + length; i++)
+            {
+                if (bytes[i] < 0)
+                {
+                    decoded = new String(bytes, start, length, StandardCharsets.UTF_8);
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Return the number of characters.
+         * @return Length
+         */
+        public int length() {
+            return decoded != null ? decoded.length() : length;
+        }
+
+        /**
+         * Return a character.
+         * @param index Index
+         * @return Character
+         */
+        public char charAt(int index) {
+            if (decoded != null)
+                return decoded.charAt(index);
+            if (index < 0 || index >= length)
+                throw new IndexOutOfBoundsException(index);
+            return (char) bytes[start + index];
+        }
+
+        /**
+         * Return a range of characters.
+         * @param from Start
+         * @param to End
+         * @return Characters
+         */
+        public CharSequence subSequence(int from, int to) {
+            if (decoded != null)
+                return decoded.subSequence(from, to);
+            if (from < 0 || from > to || to > length)
+                throw new IndexOutOfBoundsException();
+            return new Utf8View(bytes, start + from, to - from);
+        }
+
+        /**
+         * Returns string representation.
+         * @return String
+         */
+        public String toString() {
+            return decoded != null ? decoded : new String(bytes, start, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Testing code.
+     * @param args args
+     */
+    public static void main(String[] args) {
+        StringTable st1 = new StringTable(2);
+
+        if(st1.getCapacity() == 2 && st1.size() == 0) {
+            System.out.println("Yay 1");
+        }
+
+        st1.put("a","apple");
+        st1.put("b","banana");
+        st1.put("banana","b");
+        st1.put("b","butter");
+
+        if(st1.size() == 3 && st1.get("a").equals("apple") && st1.get("b").equals("butter") && st1.get("banana").equals("b") && st1.get("c") == null) {
+            System.out.println("Yay 2");
+        }
+
+        st1.put("b","bu");
+        st1.put("\u00e9t\u00e9","\uD83C\uDF1E summer");
+        if(st1.get("b").equals("bu") && st1.getView("b").toString().equals("bu") && st1.getView(new StringBuilder("banana")).charAt(0) == 'b'
+                && st1.get("\u00e9t\u00e9").equals("\uD83C\uDF1E summer") && st1.getView("\u00e9t\u00e9").length() == 9) {
+            System.out.println("Yay 3");
+        }
+
+        if(st1.remove("a").equals("apple") && st1.remove("a") == null && st1.size() == 3 && st1.get("a") == null) {
+            System.out.println("Yay 4");
+        }
+
+        for(int i = 0; i < 100000; i++) {
+            st1.put("k" + i, "v" + i);
+        }
+        for(int i = 0; i < 100000; i += 2) {
+            st1.remove("k" + i);
+        }
+        boolean all = st1.size() == 50003;
+        for(int i = 0; i < 100000; i++) {
+            String v = st1.get("k" + i);
+            all &= (i % 2 == 0) ? v == null : v.equals("v" + i);
+        }
+        if(all) {
+            System.out.println("Yay 5");
+        }
+
+        long before = st1.arenaBytes();
+        if(st1.rehash(2) == false && st1.rehash(1 << 17) && st1.arenaBytes() < before && st1.get("k99999").equals("v99999")) {
+            System.out.println("Yay 6");
+        }
+
+        StringTable st2 = new StringTable(16);
+        String longValue = "x".repeat(200);
+        boolean churn = true;
+        for(int i = 0; i < 200000; i++) {
+            String k = "key" + (i % 8);
+            String v = (i % 3 == 0) ? longValue + i : "v" + i;
+            st2.put(k, v);
+            churn &= st2.get(k).equals(v) && st2.arenaBytes() < 4 * MIN_COMPACT;
+        }
+        if(churn && st2.size() == 8 && st2.getView("key7").toString().equals(st2.get("key7"))) {
+            System.out.println("Yay 7");
+        }
+
+        if(args.length == 1) {
+            memory(Integer.parseInt(args[0]));
+        }
+    }
+
+    /**
+     * Compares heap used by the same entries in this table and in OpenAddress.
+     * @param n Number of entries
+     */
+    private static void memory(int n) {
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        long base = rt.totalMemory() - rt.freeMemory();
+        OpenAddress<String,String> linear = new OpenAddress<>(2);
+        for(int i = 0; i < n; i++) {
+            linear.put("key" + i, "value" + i);
+        }
+        System.gc();
+        long linearBytes = rt.totalMemory() - rt.freeMemory() - base;
+        linear = null;
+
+        System.gc();
+        base = rt.totalMemory() - rt.freeMemory();
+        StringTable packed = new StringTable(2);
+        for(int i = 0; i < n; i++) {
+            packed.put("key" + i, "value" + i);
+        }
+        System.gc();
+        long packedBytes = rt.totalMemory() - rt.freeMemory() - base;
+
+        System.out.printf("%d entries: OpenAddress %.1f bytes/entry, StringTable %.1f bytes/entry (%d)%n",
+                n, (double) linearBytes / n, (double) packedBytes / n, packed.size());
+    }
+
+    /**
+     * Returns string representation.
+     * @return String
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for(int i = 0; i < slots.length; i++) {
+            if(slots[i] != EMPTY && slots[i] != TOMBSTONE) {
+                s.append(entryString(i));
+                s.append("\n");
+            }
+        }
+        return s.toString().trim();
+    }
+
+    /**
+     * Returns string representation.
+     * @return String
+     */
+    public String toStringDebug() {
+        StringBuilder s = new StringBuilder();
+        for(int i = 0; i < slots.length; i++) {
+            if(isTombstone(i)) {
+                s.append("[" + i + "]: tombstone\n");
+            }
+            else {
+                s.append("[" + i + "]: " + (slots[i] != EMPTY ? entryString(i) : "null") + "\n");
+            }
+        }
+        return s.toString().trim();
+    }
+
+    /**
+     * Returns string representation of a slot's entry.
+     * @param slot Slot
+     * @return String
+     */
+    private String entryString(int slot) {
+        long offset = offsetOf(slot);
+        readRecord(offset);
+        return new String(page(offset), recordKey, recordKeyLength, StandardCharsets.UTF_8) + ":" + decode(slot);
+    }
+}
@@ -0,0 +1,428 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Open Addressing Table with control bytes, probed a group of slots at a time.
+ * @param <K> Key
+ * @param <V> Value
+ */
+class SwissTable<K,V> {
+    /**
+     * Slots per group.
+     */
+    private static final int GROUP_WIDTH = 8;
+
+    /**
+     * Control byte of a slot that has never been used.
+     */
+    private static final byte EMPTY = (byte) 0x80;
+
+    /**
+     * Control byte of a removed slot.
+     */
+    private static final byte DELETED = (byte) 0xFE;
+
+    /**
+     * 0x01 in every byte of a word.
+     */
+    private static final long LSBS = 0x0101010101010101L;
+
+    /**
+     * 0x80 in every byte of a word.
+     */
+    private static final long MSBS = 0x8080808080808080L;
+
+    /**
+     * Reads a group of control bytes as one word.
+     */
+    private static final VarHandle GROUP =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Array of control bytes, 7 bits of hash for a full slot.
+     */
+    private byte[] control;
+
+    /**
+     * Array of entries.
+     */
+    private TableEntry<K,V>[] storage;
+
+    /**
+     * Number of elements.
+     */
+    private int elements = 0;
+
+    /**
+     * Number of deleted slots.
+     */
+    private int deleted = 0;
+
+    /**
+     * Hashtable constructor.
+     * @param size Size of table
+     */
+    public SwissTable(int size) {
+        allocate(size);
+    }
+
+    /**
+     * Return how many "slots" are in the table.
+     * @return Capacity
+     */
+    public int getCapacity() {
+        return storage.length;
+    }
+
+    /**
+     * Return the number of elements in the table.
+     * @return Number of elements.
+     */
+    public int size() {
+        return elements;
+    }
+
+    /**
+     * Puts entry in storage.
+     * @param k Key
+     * @param v Value
+     */
+    public void put(K k, V v) {
+        if (k == null || v == null)
+        {
+            throw new IllegalArgumentException();
+        }
+
+        int hash = hash(k);
+        int slot = find(k, hash);
+        if (slot >= 0)
+        {
+            storage[slot] = new TableEntry<>(k, v);
+            return;
+        }
+
+        if ((elements + deleted + 1) * 8L > getCapacity() * 7L)
+        {
+            rehash(elements + 1 > getCapacity() / 2 ? getCapacity() * 2 : getCapacity());
+        }
+        insert(k, v, hash);
+    }
+
+    /**
+     * Remove the given key (and associated value) from the table.
+     * @param k Key
+     * @return Value in the table if not null
+     */
+    public V remove(K k) {
+        if (k == null)
+        {
+            return null;
+        }
+
+        int slot = find(k, hash(k));
+        if (slot < 0)
+        {
+            return null;
+        }
+        V val = storage[slot].getValue();
+        storage[slot] = null;
+        control[slot] = DELETED;
+        elements--;
+        deleted++;
+        return val;
+    }
+
+    /**
+     * Given a key, return the value from the table.
+     * @param k Key
+     * @return Value
+     */
+    public V get(K k) {
+        if (k == null)
+        {
+            return null;
+        }
+
+        int slot = find(k, hash(k));
+        return slot < 0 ? null : storage[slot].getValue();
+    }
+
+    /**
+     * Checks location if there is a tombstone.
+     * @param loc Location
+     * @return True if there is a tombstone at given index
+     */
+    public boolean isTombstone(int loc) {
+        return control[loc] == DELETED;
+    }
+
+    /**
+     * Rehashes storage.
+     * @param size New size, rounded up to a power of two number of groups
+     * @return if successful
+     */
+    public boolean rehash(int size) {
+        if (size < (size() + 1))
+        {
+            return false;
+        }
+        TableEntry<K,V>[] oldStorage = storage;
+        allocate(size);
+        while ((elements + 1) * 8L > getCapacity() * 7L)
+        {
+            allocate(getCapacity() * 2);
+        }
+        elements = 0;
+        for (TableEntry<K,V> element : oldStorage)
+        {
+            if (element != null)
+                insert(element.getKey(), element.getValue(), hash(element.getKey()));
+        }
+        return true;
+    }
+
+    /**
+     * Creates empty storage of at least the given size.
+     * @param size Minimum number of slots
+     */
+    @SuppressWarnings("unchecked")
+    private void allocate(int size) {
+        int capacity = GROUP_WIDTH;
+        while (capacity < size)
+            capacity <<= 1;
+
+        control = new byte[capacity];
+        java.util.Arrays.fill(control, EMPTY);
+        storage = new TableEntry[capacity];
+        deleted = 0;
+    }
+
+    /**
+     * Finds the slot holding a key.
+     * @param k Key
+     * @param hash Hash of key
+     * @return Slot, or -1 if absent
+     */
+    private int find(K k, int hash) {
+        long fragment = (hash & 0x7F) * LSBS;
+        int mask = getCapacity() / GROUP_WIDTH - 1;
+        int group = (hash >>> 7) & mask;
+
+        for (int stride = 1; stride <= mask + 1; stride++)
+        {
+            long word = (long) GROUP.get(control, group * GROUP_WIDTH);
+
+            long match = matchZero(word ^ fragment);
+            while (match != 0)
+            {
+                int slot = group * GROUP_WIDTH + (Long.numberOfTrailingZeros(match) >>> 3);
+                if (storage[slot] != null && storage[slot].getKey().equals(k))
+                {
+                    return slot;
+                }
+                match &= match - 1;
+            }
+
+            if (matchEmpty(word) != 0)
+            {
+                return -1;
+            }
+            group = (group + stride) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Places a key known to be absent in the first free slot of its probe sequence.
+     * @param k Key
+     * @param v Value
+     * @param hash Hash of key
+     */
+    private void insert(K k, V v, int hash) {
+        int mask = getCapacity() / GROUP_WIDTH - 1;
+        int group = (hash >>> 7) & mask;
+
+        for (int stride = 1; ; stride++)
+        {
+            long free = matchEmptyOrDeleted((long) GROUP.get(control, group * GROUP_WIDTH));
+            if (free != 0)
+            {
+                int slot = group * GROUP_WIDTH + (Long.numberOfTrailingZeros(free) >>> 3);
+                if (control[slot] == DELETED)
+                    deleted--;
+                control[slot] = (byte) (hash & 0x7F);
+                storage[slot] = new TableEntry<>(k, v);
+                elements++;
+                return;
+            }
+            group = (group + stride) & mask;
+        }
+    }
+
+    /**
+     * Marks the zero bytes of a word. A byte just above a real match may be
+     * marked as well, which only costs an extra key comparison.
+     * @param x Word
+     * @return High bit set in each matching byte
+     */
+    private static long matchZero(long x) {
+        return (x - LSBS) & ~x & MSBS;
+    }
+
+    /**
+     * Marks the empty control bytes of a group.
+     * @param word Group
+     * @return High bit set in each empty byte
+     */
+    private static long matchEmpty(long word) {
+        return word & ~(word << 6) & MSBS;
+    }
+
+    /**
+     * Marks the empty or deleted control bytes of a group.
+     * @param word Group
+     * @return High bit set in each free byte
+     */
+    private static long matchEmptyOrDeleted(long word) {
+        return word & ~(word << 7) & MSBS;
+    }
+
+    /**
+     * Spreads the key's hash code so both the group and the fragment bits vary.
+     * @param k Key
+     * @return Hash
+     */
+    private static int hash(Object k) {
+        int h = k.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Testing code.
+     * @param args args
+     */
+    public static void main(String[] args) {
+        SwissTable<String,Integer> st1 = new SwissTable<>(2);
+
+        if(st1.getCapacity() == 8 && st1.size() == 0) {
+            System.out.println("Yay 1");
+        }
+
+        st1.put("a",1);
+        st1.put("b",2);
+        st1.put("a",3);
+
+        if(st1.size() == 2 && st1.get("a").equals(3) && st1.get("b").equals(2) && st1.get("c") == null) {
+            System.out.println("Yay 2");
+        }
+
+        if(st1.remove("a").equals(3) && st1.remove("a") == null && st1.size() == 1 && st1.get("a") == null) {
+            System.out.println("Yay 3");
+        }
+
+        for(int i = 0; i < 1000; i++) {
+            st1.put("k" + i, i);
+        }
+        boolean all = true;
+        for(int i = 0; i < 1000; i++) {
+            all &= st1.get("k" + i).equals(i);
+        }
+        if(all && st1.size() == 1001 && st1.getCapacity() >= 1001) {
+            System.out.println("Yay 4");
+        }
+
+        for(int i = 0; i < 1000; i += 2) {
+            st1.remove("k" + i);
+        }
+        for(int i = 0; i < 1000; i += 2) {
+            st1.put("k" + i, -i);
+        }
+        all = st1.size() == 1001;
+        for(int i = 0; i < 1000; i++) {
+            all &= st1.get("k" + i).equals(i % 2 == 0 ? -i : i);
+        }
+        if(all) {
+            System.out.println("Yay 5");
+        }
+
+        if(st1.rehash(10) == false && st1.rehash(4096) == true && st1.getCapacity() == 4096 && st1.get("k999").equals(999)) {
+            System.out.println("Yay 6");
+        }
+
+        if(args.length == 1) {
+            benchmark(Integer.parseInt(args[0]));
+        }
+    }
+
+    /**
+     * Times hit and miss lookups against the linear probing table.
+     * @param n Number of keys
+     */
+    private static void benchmark(int n) {
+        OpenAddress<String,String> linear = new OpenAddress<>(2);
+        SwissTable<String,String> swiss = new SwissTable<>(2);
+        String[] hits = new String[n];
+        String[] misses = new String[n];
+        for(int i = 0; i < n; i++) {
+            hits[i] = "key" + i;
+            misses[i] = "miss" + i;
+            linear.put(hits[i], hits[i]);
+            swiss.put(hits[i], hits[i]);
+        }
+
+        for(int round = 0; round < 5; round++) {
+            long found = 0;
+            long start = System.nanoTime();
+            for(String k : hits) found += linear.get(k) != null ? 1 : 0;
+            long linearHit = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for(String k : hits) found += swiss.get(k) != null ? 1 : 0;
+            long swissHit = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for(String k : misses) found += linear.get(k) != null ? 1 : 0;
+            long linearMiss = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for(String k : misses) found += swiss.get(k) != null ? 1 : 0;
+            long swissMiss = System.nanoTime() - start;
+
+            System.out.printf("round %d (%d found): hit ns/op OpenAddress %.1f SwissTable %.1f, miss ns/op OpenAddress %.1f SwissTable %.1f%n",
+                    round, found, (double) linearHit / n, (double) swissHit / n, (double) linearMiss / n, (double) swissMiss / n);
+        }
+    }
+
+    /**
+     * Returns string representation.
+     * @return String
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for(int i = 0; i < storage.length; i++) {
+            if(storage[i] != null) {
+                s.append(storage[i]);
+                s.append("\n");
+            }
+        }
+        return s.toString().trim();
+    }
+
+    /**
+     * Returns string representation.
+     * @return String
+     */
+    public String toStringDebug() {
+        StringBuilder s = new StringBuilder();
+        for(int i = 0; i < storage.length; i++) {
+            if(!isTombstone(i)) {
+                s.append("[" + i + "]: " + storage[i] + "\n");
+            }
+            else {
+                s.append("[" + i + "]: tombstone\n");
+            }
+        }
+        return s.toString().trim();
+    }
+}
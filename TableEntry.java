@@ -40,6 +40,14 @@ class TableEntry<K,V> {
 		return value;
 	}
 
+	/**
+	 * Value setter.
+	 * @param value Value
+	 */
+	public void setValue(V value) {
+		this.value = value;
+	}
+
 	/**
 	 * String converter.
 	 * @return String
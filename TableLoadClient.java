@@ -0,0 +1,193 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Load generator for {@link TableServer}.
+ * Each connection runs on its own thread and keeps a batch of pipelined requests in flight.
+ */
+class TableLoadClient {
+    /**
+     * Server port.
+     */
+    private final int port;
+
+    /**
+     * Number of connections.
+     */
+    private final int connections;
+
+    /**
+     * Requests sent per batch on a connection.
+     */
+    private final int pipeline;
+
+    /**
+     * Requests per connection.
+     */
+    private final int ops;
+
+    /**
+     * Number of distinct keys.
+     */
+    private final int keys;
+
+    /**
+     * Percentage of requests that are gets; the rest are puts, about one in twenty of them deletes.
+     */
+    private final int readPercent;
+
+    /**
+     * Load client constructor.
+     * @param port Server port on loopback
+     * @param connections Number of connections
+     * @param pipeline Requests per batch
+     * @param ops Requests per connection
+     * @param keys Number of distinct keys
+     * @param readPercent Percentage of gets
+     */
+    public TableLoadClient(int port, int connections, int pipeline, int ops, int keys, int readPercent) {
+        if (connections < 1 || pipeline < 1 || ops < 0 || keys < 1)
+        {
+            throw new IllegalArgumentException();
+        }
+        this.port = port;
+        this.connections = connections;
+        this.pipeline = pipeline;
+        this.ops = ops;
+        this.keys = keys;
+        this.readPercent = readPercent;
+    }
+
+    /**
+     * Runs every connection and prints ops/sec and latency percentiles.
+     * @throws Exception If a connection fails
+     */
+    public void run() throws Exception {
+        LatencyHistogram[] latencies = new LatencyHistogram[connections];
+        Exception[] failures = new Exception[connections];
+        Thread[] threads = new Thread[connections];
+        for (int i = 0; i < connections; i++)
+        {
+            int id = i;
+            latencies[i] = new LatencyHistogram();
+            threads[i] = new Thread(() -> {
+                try
+                {
+                    drive(id, latencies[id]);
+                }
+                catch (Exception e)
+                {
+                    failures[id] = e;
+                }
+            }, "load-" + i);
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        long elapsed = System.nanoTime() - start;
+
+        for (Exception e : failures)
+        {
+            if (e != null)
+                throw e;
+        }
+        LatencyHistogram all = new LatencyHistogram();
+        for (LatencyHistogram latency : latencies)
+            all.add(latency);
+        System.out.printf("%d connections, pipeline %d: %d ops in %.3fs, %.0f ops/s%n",
+                connections, pipeline, all.count(), elapsed / 1e9, all.count() / (elapsed / 1e9));
+        System.out.println("latency: " + all);
+    }
+
+    /**
+     * Sends batches of requests on one connection.
+     * @param id Connection number, used as the random seed
+     * @param latency Histogram of request latencies
+     * @throws IOException If the connection fails
+     */
+    private void drive(int id, LatencyHistogram latency) throws IOException {
+        Random random = new Random(id);
+        ByteBuffer out = ByteBuffer.allocateDirect(TableServer.BUFFER_SIZE);
+        ByteBuffer in = ByteBuffer.allocateDirect(TableServer.BUFFER_SIZE);
+        byte[] value = new byte[16];
+
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port)))
+        {
+            channel.socket().setTcpNoDelay(true);
+            in.flip();
+            for (int sent = 0; sent < ops; )
+            {
+                int batch = Math.min(pipeline, ops - sent);
+                out.clear();
+                for (int i = 0; i < batch; i++)
+                {
+                    if (out.remaining() < 64)
+                    {
+                        batch = i;
+                        break;
+                    }
+                    byte[] k = ("key" + random.nextInt(keys)).getBytes(StandardCharsets.UTF_8);
+                    int roll = random.nextInt(100);
+                    byte op = roll < readPercent ? TableServer.GET : roll % 20 == 0 ? TableServer.DEL : TableServer.PUT;
+                    out.put(op);
+                    out.putInt(k.length);
+                    out.put(k);
+                    if (op == TableServer.PUT)
+                    {
+                        random.nextBytes(value);
+                        for (int j = 0; j < value.length; j++)
+                            value[j] = (byte) ('a' + (value[j] & 15));
+                        out.putInt(value.length);
+                        out.put(value);
+                    }
+                }
+                out.flip();
+
+                long start = System.nanoTime();
+                while (out.hasRemaining())
+                    channel.write(out);
+                for (int i = 0; i < batch; i++)
+                {
+                    fill(channel, in, 1);
+                    if (in.get() == TableServer.FOUND)
+                    {
+                        fill(channel, in, 4);
+                        int length = in.getInt();
+                        fill(channel, in, length);
+                        in.position(in.position() + length);
+                    }
+                    latency.record(System.nanoTime() - start);
+                }
+                sent += batch;
+            }
+        }
+    }
+
+    /**
+     * Reads until a number of bytes are available.
+     * @param channel Socket
+     * @param in Buffer in read mode
+     * @param n Bytes needed
+     * @throws IOException If the connection closes
+     */
+    private static void fill(SocketChannel channel, ByteBuffer in, int n) throws IOException {
+        if (in.remaining() >= n)
+            return;
+        in.compact();
+        while (in.position() < n)
+        {
+            if (channel.read(in) < 0)
+                throw new EOFException();
+        }
+        in.flip();
+    }
+}
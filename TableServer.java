@@ -0,0 +1,465 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Serves a table over TCP on loopback from a single NIO selector loop.
+ * A request is an op byte, then a length-prefixed key, then a length-prefixed value for PUT.
+ * A response is a status byte, then a length-prefixed value for FOUND.
+ * Requests may be pipelined; responses come back in request order.
+ */
+class TableServer {
+    /**
+     * Get request.
+     */
+    public static final byte GET = 1;
+
+    /**
+     * Put request.
+     */
+    public static final byte PUT = 2;
+
+    /**
+     * Delete request.
+     */
+    public static final byte DEL = 3;
+
+    /**
+     * Response with a value.
+     */
+    public static final byte FOUND = 0;
+
+    /**
+     * Response for an absent key.
+     */
+    public static final byte MISSING = 1;
+
+    /**
+     * Response for a put.
+     */
+    public static final byte OK = 2;
+
+    /**
+     * Size of each connection's read and write buffers, which bounds a single request.
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Longest key or value in a request.
+     */
+    public static final int MAX_LENGTH = BUFFER_SIZE / 4;
+
+    /**
+     * Longest response, allowing for a stored value to re-encode as up to three bytes per byte received.
+     */
+    private static final int MAX_RESPONSE = 5 + 3 * MAX_LENGTH;
+
+    /**
+     * Open Addressing table, if used.
+     */
+    private final OpenAddress<String,String> table1;
+
+    /**
+     * Separate Chaining table, if used.
+     */
+    private final SeparateChain<String,String> table2;
+
+    /**
+     * Listening socket.
+     */
+    private final ServerSocketChannel server;
+
+    /**
+     * Selector for every socket.
+     */
+    private final Selector selector;
+
+    /**
+     * Scratch space for decoding keys and values.
+     */
+    private final byte[] scratch = new byte[BUFFER_SIZE];
+
+    /**
+     * Server constructor, binds the port on loopback.
+     * @param useTable1 Type of table.
+     * @param port Port, 0 for any
+     * @throws IOException If the port can't be bound
+     */
+    public TableServer(boolean useTable1, int port) throws IOException {
+        table1 = useTable1 ? new OpenAddress<>(2) : null;
+        table2 = useTable1 ? null : new SeparateChain<>(2);
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Return the bound port.
+     * @return Port
+     * @throws IOException If the socket is closed
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Runs the selector loop until the thread is interrupted.
+     * @throws IOException If the selector fails
+     */
+    public void run() throws IOException {
+        try
+        {
+            while (!Thread.currentThread().isInterrupted())
+            {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try
+                    {
+                        if (key.isAcceptable())
+                            accept();
+                        else
+                            serve(key);
+                    }
+                    catch (IOException | RuntimeException e)
+                    {
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            }
+        }
+        finally
+        {
+            for (SelectionKey key : selector.keys())
+                key.channel().close();
+            selector.close();
+        }
+    }
+
+    /**
+     * Accepts a connection and gives it its buffers.
+     * @throws IOException If accepting fails
+     */
+    private void accept() throws IOException {
+        SocketChannel client = server.accept();
+        if (client == null)
+            return;
+        client.configureBlocking(false);
+        client.socket().setTcpNoDelay(true);
+        client.register(selector, SelectionKey.OP_READ, new Connection());
+    }
+
+    /**
+     * Reads requests, runs every complete one and writes their responses in one batch.
+     * @param key Selection key of a connection
+     * @throws IOException If the connection fails or sends a bad request
+     */
+    private void serve(SelectionKey key) throws IOException {
+        SocketChannel client = (SocketChannel) key.channel();
+        Connection c = (Connection) key.attachment();
+
+        if (key.isReadable() && client.read(c.in) < 0)
+        {
+            key.cancel();
+            client.close();
+            return;
+        }
+
+        c.in.flip();
+        try
+        {
+            boolean more = true;
+            while (more)
+            {
+                while (more && c.out.remaining() >= MAX_RESPONSE)
+                    more = handle(c.in, c.out);
+
+                //Stop reading until the peer drains its responses.
+                if (!flush(client, c))
+                {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        }
+        finally
+        {
+            c.in.compact();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Writes pending responses.
+     * @param client Socket
+     * @param c Connection
+     * @return True if everything was written
+     * @throws IOException If writing fails
+     */
+    private boolean flush(SocketChannel client, Connection c) throws IOException {
+        c.out.flip();
+        client.write(c.out);
+        boolean done = !c.out.hasRemaining();
+        c.out.compact();
+        return done;
+    }
+
+    /**
+     * Runs one request if it has fully arrived.
+     * @param in Request bytes
+     * @param out Response bytes
+     * @return False if the request is incomplete
+     * @throws IOException If the request is malformed
+     */
+    private boolean handle(ByteBuffer in, ByteBuffer out) throws IOException {
+        int start = in.position();
+        if (in.remaining() < 5)
+            return false;
+
+        byte op = in.get();
+        int keyLength = in.getInt();
+        if (op < GET || op > DEL || keyLength < 0 || keyLength > MAX_LENGTH)
+            throw new IOException("Bad request");
+
+        int valueLength = 0;
+        if (op == PUT)
+        {
+            if (in.remaining() < keyLength + 4)
+            {
+                in.position(start);
+                return false;
+            }
+            valueLength = in.getInt(in.position() + keyLength);
+            if (valueLength < 0 || valueLength > MAX_LENGTH)
+                throw new IOException("Bad request");
+        }
+        if (in.remaining() < keyLength + (op == PUT ? 4 + valueLength : 0))
+        {
+            in.position(start);
+            return false;
+        }
+
+        String k = decode(in, keyLength);
+        String v;
+        switch (op) {
+            case GET:
+                v = table1 != null ? table1.get(k) : table2.get(k);
+                break;
+            case PUT:
+                in.getInt();
+                v = decode(in, valueLength);
+                if (table1 != null) table1.put(k, v);
+                else table2.put(k, v);
+                out.put(OK);
+                return true;
+            case DEL:
+            default:
+                v = table1 != null ? table1.remove(k) : table2.remove(k);
+                break;
+        }
+
+        if (v == null)
+        {
+            out.put(MISSING);
+        }
+        else
+        {
+            byte[] bytes = v.getBytes(StandardCharsets.UTF_8);
+            out.put(FOUND);
+            out.putInt(bytes.length);
+            out.put(bytes);
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a UTF-8 string.
+     * @param in Bytes
+     * @param length Byte length
+     * @return String
+     */
+    private String decode(ByteBuffer in, int length) {
+        in.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Buffers of one connection, reused for every request.
+     */
+    private static class Connection {
+        /**
+         * Unprocessed request bytes.
+         */
+        final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        /**
+         * Unsent response bytes.
+         */
+        final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    /**
+     * Testing code.
+     * @param args args
+     * @throws Exception on failure
+     */
+    public static void main(String[] args) throws Exception {
+        TableServer server = new TableServer(false, 0);
+        int port = server.getPort();
+        Thread serving = new Thread(() -> {
+            try {
+                server.run();
+            }
+            catch(IOException e) {
+                e.printStackTrace();
+            }
+        }, "table-server");
+        serving.setDaemon(true);
+        serving.start();
+
+        try(java.net.Socket socket = connect(port)) {
+            java.io.DataInputStream in = new java.io.DataInputStream(socket.getInputStream());
+            java.io.OutputStream out = socket.getOutputStream();
+            out.write(request(PUT, "a", "1"));
+            out.write(request(GET, "a", null));
+            out.write(request(DEL, "a", null));
+            out.write(request(GET, "a", null));
+            if(in.readByte() == OK && "1".equals(response(in)) && "1".equals(response(in)) && response(in) == null) {
+                System.out.println("Yay 1");
+            }
+
+            //A put split inside its key length, then inside its value.
+            byte[] split = request(PUT, "split", "\u00e9t\u00e9");
+            out.write(split, 0, 3);
+            out.flush();
+            Thread.sleep(50);
+            out.write(split, 3, 10);
+            out.flush();
+            Thread.sleep(50);
+            out.write(split, 13, split.length - 13);
+            out.write(request(GET, "split", null));
+            if(in.readByte() == OK && "\u00e9t\u00e9".equals(response(in))) {
+                System.out.println("Yay 2");
+            }
+
+            java.io.ByteArrayOutputStream batch = new java.io.ByteArrayOutputStream();
+            for(int i = 0; i < 2000; i++) {
+                batch.write(request(PUT, "k" + i, "v" + i));
+                batch.write(request(GET, "k" + i, null));
+            }
+            out.write(batch.toByteArray());
+            boolean all = true;
+            for(int i = 0; i < 2000; i++) {
+                all &= in.readByte() == OK && ("v" + i).equals(response(in));
+            }
+            if(all) {
+                System.out.println("Yay 3");
+            }
+
+            //Far more response bytes than the socket buffers hold, sent before any are read,
+            //so the server has to stop reading and wait on OP_WRITE.
+            String big = "x".repeat(MAX_LENGTH);
+            out.write(request(PUT, "big", big));
+            Thread writer = new Thread(() -> {
+                try {
+                    for(int i = 0; i < 500; i++) {
+                        out.write(request(GET, "big", null));
+                    }
+                }
+                catch(IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            writer.start();
+            Thread.sleep(200);
+            all = in.readByte() == OK;
+            for(int i = 0; i < 500; i++) {
+                all &= big.equals(response(in));
+            }
+            writer.join();
+            if(all) {
+                System.out.println("Yay 4");
+            }
+        }
+
+        boolean closed = true;
+        try(java.net.Socket socket = connect(port)) {
+            socket.getOutputStream().write(new byte[] {9, 0, 0, 0, 0});
+            closed &= socket.getInputStream().read() == -1;
+        }
+        try(java.net.Socket socket = connect(port)) {
+            ByteBuffer tooLong = ByteBuffer.allocate(10).put(PUT).putInt(1).put((byte) 'k').putInt(MAX_LENGTH + 1);
+            socket.getOutputStream().write(tooLong.array(), 0, tooLong.position());
+            closed &= socket.getInputStream().read() == -1;
+        }
+        try(java.net.Socket socket = connect(port)) {
+            java.io.DataInputStream in = new java.io.DataInputStream(socket.getInputStream());
+            socket.getOutputStream().write(request(GET, "k7", null));
+            if(closed && "v7".equals(response(in))) {
+                System.out.println("Yay 5");
+            }
+        }
+
+        new TableLoadClient(port, 2, 16, 1000, 100, 80).run();
+        System.out.println("Yay 6");
+
+        serving.interrupt();
+        serving.join();
+    }
+
+    /**
+     * Connects to the server.
+     * @param port Port
+     * @return Socket
+     * @throws IOException If connecting fails
+     */
+    private static java.net.Socket connect(int port) throws IOException {
+        java.net.Socket socket = new java.net.Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setSoTimeout(10_000);
+        return socket;
+    }
+
+    /**
+     * Encodes a request.
+     * @param op GET, PUT or DEL
+     * @param k Key
+     * @param v Value for PUT
+     * @return Bytes
+     */
+    private static byte[] request(byte op, String k, String v) {
+        byte[] key = k.getBytes(StandardCharsets.UTF_8);
+        byte[] value = v == null ? new byte[0] : v.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = ByteBuffer.allocate(9 + key.length + value.length);
+        b.put(op).putInt(key.length).put(key);
+        if (op == PUT)
+            b.putInt(value.length).put(value);
+        return java.util.Arrays.copyOf(b.array(), b.position());
+    }
+
+    /**
+     * Reads a GET or DEL response.
+     * @param in Stream
+     * @return Value, or null for MISSING
+     * @throws IOException If reading fails
+     */
+    private static String response(java.io.DataInputStream in) throws IOException {
+        if (in.readByte() != FOUND)
+            return null;
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,513 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Table with a hot in-memory Separate Chaining tier that spills to immutable segment files on disk.
+ * When the hot tier reaches its budget it is written out as a new segment, sorted by key hash.
+ * A background thread merges segments once there are too many, so a miss reads a bounded number of files.
+ * Like the other tables, it is meant for use from one thread at a time.
+ * @param <K> Key
+ * @param <V> Value
+ */
+class TieredTable<K,V> implements AutoCloseable {
+    /**
+     * Marks a key removed in the hot tier until the removal reaches disk.
+     */
+    private static final Object REMOVED = new Object();
+
+    /**
+     * Directory of segment files.
+     */
+    private final Path dir;
+
+    /**
+     * Most entries in the hot tier before it spills.
+     */
+    private final int hotLimit;
+
+    /**
+     * Most segments before a merge starts.
+     */
+    private final int maxSegments;
+
+    /**
+     * Key serializer.
+     */
+    private final Serializer<K> keys;
+
+    /**
+     * Value serializer.
+     */
+    private final Serializer<V> values;
+
+    /**
+     * Hot tier, holding values or REMOVED.
+     */
+    private SeparateChain<K,Object> hot;
+
+    /**
+     * Segments, oldest first; replaced as a whole on every change.
+     */
+    private volatile List<Segment> segments;
+
+    /**
+     * Segments replaced by a merge, closed and deleted by the table's own thread.
+     */
+    private final ConcurrentLinkedQueue<Segment> retired = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Background merge thread.
+     */
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "segment-merge");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Running merge, if any.
+     */
+    private Future<?> merging;
+
+    /**
+     * Number for the next segment file.
+     */
+    private long nextSegment = 0;
+
+    /**
+     * Tiered table constructor, reopening any segments already in the directory.
+     * @param dir Directory for segment files
+     * @param hotLimit Most entries held in memory
+     * @param maxSegments Most segments before merging
+     * @param keys Key serializer
+     * @param values Value serializer
+     * @throws IOException If the directory can't be read
+     */
+    public TieredTable(Path dir, int hotLimit, int maxSegments, Serializer<K> keys, Serializer<V> values) throws IOException {
+        if (hotLimit < 1 || maxSegments < 2)
+        {
+            throw new IllegalArgumentException();
+        }
+        this.dir = Files.createDirectories(dir);
+        this.hotLimit = hotLimit;
+        this.maxSegments = maxSegments;
+        this.keys = keys;
+        this.values = values;
+        hot = new SeparateChain<>(2);
+
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(dir))
+        {
+            for (Path p : (Iterable<Path>) list::iterator)
+            {
+                String name = p.getFileName().toString();
+                if (name.matches("(segment|merged)-\\d+\\.seg"))
+                    files.add(p);
+                else if (name.matches("merged-\\d+\\.seg\\.tmp"))
+                    Files.delete(p);
+            }
+        }
+        files.sort((a, b) -> Long.compare(number(a), number(b)));
+
+        //A merge covers every segment numbered below it; any still here outlived a crash before they were reaped.
+        int covered = 0;
+        for (int i = 0; i < files.size(); i++)
+        {
+            if (files.get(i).getFileName().toString().startsWith("merged-"))
+                covered = i;
+        }
+        List<Segment> opened = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++)
+        {
+            Path p = files.get(i);
+            if (i < covered)
+                Files.delete(p);
+            else
+                opened.add(new Segment(p));
+            nextSegment = number(p) + 1;
+        }
+        segments = Collections.unmodifiableList(opened);
+    }
+
+    /**
+     * Return the number of entries in memory.
+     * @return Hot entries
+     */
+    public int hotSize() {
+        return hot.size();
+    }
+
+    /**
+     * Return the number of segment files.
+     * @return Segments
+     */
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Puts entry in the hot tier, spilling it if full.
+     * @param k Key
+     * @param v Value
+     * @throws UncheckedIOException If spilling fails
+     */
+    public void put(K k, V v) {
+        if (k == null || v == null)
+        {
+            throw new IllegalArgumentException();
+        }
+        hot.put(k, v);
+        spillIfFull();
+    }
+
+    /**
+     * Remove the given key from the table.
+     * @param k Key
+     * @return Value in the table if not null
+     * @throws UncheckedIOException If reading a segment fails
+     */
+    public V remove(K k) {
+        V val = get(k);
+        if (val != null)
+        {
+            hot.put(k, REMOVED);
+            spillIfFull();
+        }
+        return val;
+    }
+
+    /**
+     * Given a key, return the value from memory or, failing that, from the newest segment that has it.
+     * @param k Key
+     * @return Value
+     * @throws UncheckedIOException If reading a segment fails
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K k) {
+        reap();
+        Object v = hot.get(k);
+        if (v != null)
+        {
+            return v == REMOVED ? null : (V) v;
+        }
+
+        byte[] key = keys.toBytes(k);
+        long hash = Segment.hash(key);
+        List<Segment> current = segments;
+        try
+        {
+            for (int i = current.size() - 1; i >= 0; i--)
+            {
+                Segment.Record r = current.get(i).find(hash, key);
+                if (r != null)
+                {
+                    return r.value == null ? null : values.fromBytes(r.value, 0, r.value.length);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return null;
+    }
+
+    /**
+     * Writes the hot tier to a new segment.
+     * @throws IOException If writing fails
+     */
+    @SuppressWarnings("unchecked")
+    public void flush() throws IOException {
+        reap();
+        if (hot.size() == 0)
+        {
+            return;
+        }
+
+        List<Segment.Record> records = new ArrayList<>(hot.size());
+        hot.forEach((k, v) -> {
+            byte[] key = keys.toBytes(k);
+            records.add(new Segment.Record(Segment.hash(key), key, v == REMOVED ? null : values.toBytes((V) v)));
+        });
+        Collections.sort(records);
+
+        Segment segment = Segment.write(nextPath("segment"), records.iterator(), records.size());
+        synchronized (this)
+        {
+            List<Segment> grown = new ArrayList<>(segments);
+            grown.add(segment);
+            segments = Collections.unmodifiableList(grown);
+        }
+        hot = new SeparateChain<>(2);
+
+        if (segments.size() > maxSegments && (merging == null || merging.isDone()))
+        {
+            List<Segment> victims = segments;
+            Path target = nextPath("merged");
+            merging = merger.submit(() -> merge(victims, target));
+        }
+    }
+
+    /**
+     * Waits for a running merge.
+     * @throws IOException If the merge failed or the wait was interrupted
+     */
+    public void awaitMerge() throws IOException {
+        if (merging != null)
+        {
+            try
+            {
+                merging.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a merge");
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                if (cause instanceof UncheckedIOException)
+                    throw ((UncheckedIOException) cause).getCause();
+                throw new IOException("Merge failed", cause);
+            }
+        }
+        reap();
+    }
+
+    /**
+     * Flushes the hot tier, waits for merging and closes every segment.
+     * @throws IOException If flushing or merging fails
+     */
+    public void close() throws IOException {
+        try
+        {
+            flush();
+            awaitMerge();
+        }
+        finally
+        {
+            merger.shutdown();
+            try
+            {
+                merger.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            for (Segment s : segments)
+            {
+                s.close();
+            }
+            reap();
+        }
+    }
+
+    /**
+     * Merges segments into one and swaps it in; runs on the merge thread.
+     * The merged file only appears under its name once complete, and from then on it covers every
+     * lower-numbered segment, so the constructor drops victims left behind by a crash before reap.
+     * @param victims Every segment when the merge started, oldest first
+     * @param target New file, numbered above every victim
+     * @return Nothing
+     * @throws IOException If merging fails
+     */
+    private Void merge(List<Segment> victims, Path target) throws IOException {
+        Path partial = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.deleteIfExists(partial);
+        Segment.merge(partial, victims, true).close();
+        Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+        Segment merged = new Segment(target);
+        synchronized (this)
+        {
+            //Spills that finished during the merge stay, after the merged segment.
+            List<Segment> swapped = new ArrayList<>();
+            swapped.add(merged);
+            swapped.addAll(segments.subList(victims.size(), segments.size()));
+            segments = Collections.unmodifiableList(swapped);
+        }
+        retired.addAll(victims);
+        return null;
+    }
+
+    /**
+     * Spills the hot tier once it reaches its budget.
+     */
+    private void spillIfFull() {
+        if (hot.size() >= hotLimit)
+        {
+            try
+            {
+                flush();
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Closes and deletes segments replaced by a merge. Only the table's own thread reads segments,
+     * so none of these are in use once it gets here.
+     */
+    private void reap() {
+        Segment s;
+        while ((s = retired.poll()) != null)
+        {
+            try
+            {
+                s.close();
+                Files.deleteIfExists(s.getPath());
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Names the next segment file.
+     * @param kind segment for a spill, merged for a merge
+     * @return Path
+     */
+    private synchronized Path nextPath(String kind) {
+        return dir.resolve(kind + "-" + (nextSegment++) + ".seg");
+    }
+
+    /**
+     * Parses a segment file's number.
+     * @param p Path
+     * @return Number
+     */
+    private static long number(Path p) {
+        String name = p.getFileName().toString();
+        return Long.parseLong(name.substring(name.indexOf('-') + 1, name.length() - ".seg".length()));
+    }
+
+    /**
+     * Testing code.
+     * @param args args
+     * @throws Exception on failure
+     */
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("tiered");
+        try(TieredTable<String,Integer> st1 = new TieredTable<>(dir, 100, 3, Serializer.STRING, Serializer.INTEGER)) {
+            for(int i = 0; i < 1000; i++) {
+                st1.put("k" + i, i);
+            }
+            if(st1.hotSize() < 100 && st1.segmentCount() > 0 && st1.get("k0").equals(0) && st1.get("k999").equals(999) && st1.get("k1000") == null) {
+                System.out.println("Yay 1");
+            }
+
+            for(int i = 0; i < 1000; i += 2) {
+                st1.put("k" + i, -i);
+            }
+            for(int i = 0; i < 1000; i += 3) {
+                st1.remove("k" + i);
+            }
+            st1.awaitMerge();
+            boolean all = st1.segmentCount() <= 4;
+            for(int i = 0; i < 1000; i++) {
+                Integer v = st1.get("k" + i);
+                all &= (i % 3 == 0) ? v == null : v.equals(i % 2 == 0 ? -i : i);
+            }
+            if(all) {
+                System.out.println("Yay 2");
+            }
+        }
+
+        try(TieredTable<String,Integer> st2 = new TieredTable<>(dir, 100, 3, Serializer.STRING, Serializer.INTEGER)) {
+            if(st2.hotSize() == 0 && st2.get("k1").equals(1) && st2.get("k2").equals(-2) && st2.get("k3") == null) {
+                System.out.println("Yay 3");
+            }
+        }
+
+        List<Segment> left = new ArrayList<>();
+        try(Stream<Path> files = Files.list(dir)) {
+            for(Path p : (Iterable<Path>) files::iterator) {
+                left.add(new Segment(p));
+            }
+        }
+        Path taken = dir.resolve("taken");
+        Files.write(taken, new byte[] {1, 2, 3});
+        long before = openFiles();
+        try {
+            //The target already exists, so the merge fails after opening every cursor and must leave the file alone.
+            Segment.merge(taken, left, true);
+        }
+        catch(IOException e) {
+            if(openFiles() == before && Files.exists(taken) && java.util.Arrays.equals(Files.readAllBytes(taken), new byte[] {1, 2, 3})) {
+                System.out.println("Yay 4");
+            }
+        }
+        for(Segment s : left) {
+            s.close();
+        }
+        Files.delete(taken);
+
+        //A crash partway through reaping a merge's victims: the merged segment dropped k3's removal, but an older value is left.
+        Path crashed = Files.createTempDirectory("tiered");
+        byte[] k3 = Serializer.STRING.toBytes("k3");
+        byte[] k4 = Serializer.STRING.toBytes("k4");
+        Segment v0 = Segment.write(crashed.resolve("segment-0.seg"), List.of(new Segment.Record(Segment.hash(k3), k3, Serializer.INTEGER.toBytes(3))).iterator(), 1);
+        Segment v1 = Segment.write(crashed.resolve("segment-1.seg"), List.of(new Segment.Record(Segment.hash(k3), k3, null)).iterator(), 1);
+        Segment.merge(crashed.resolve("merged-2.seg"), List.of(v0, v1), true).close();
+        v0.close();
+        v1.close();
+        Files.delete(crashed.resolve("segment-1.seg"));
+        Segment.write(crashed.resolve("segment-3.seg"), List.of(new Segment.Record(Segment.hash(k4), k4, Serializer.INTEGER.toBytes(4))).iterator(), 1).close();
+        try(TieredTable<String,Integer> st3 = new TieredTable<>(crashed, 100, 3, Serializer.STRING, Serializer.INTEGER)) {
+            if(st3.get("k3") == null && st3.get("k4").equals(4) && st3.segmentCount() == 2 && !Files.exists(crashed.resolve("segment-0.seg"))) {
+                System.out.println("Yay 5");
+            }
+        }
+        try(Stream<Path> files = Files.list(crashed)) {
+            for(Path p : (Iterable<Path>) files::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(crashed);
+        try(Stream<Path> files = Files.list(dir)) {
+            for(Path p : (Iterable<Path>) files::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    /**
+     * Counts the process's open file descriptors, where the platform shows them.
+     * @return Open descriptors, or 0 if unknown
+     * @throws IOException If listing fails
+     */
+    private static long openFiles() throws IOException {
+        Path fds = Path.of("/proc/self/fd");
+        if (!Files.isDirectory(fds))
+        {
+            return 0;
+        }
+        try (Stream<Path> list = Files.list(fds))
+        {
+            return list.count();
+        }
+    }
+}
@@ -0,0 +1,307 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader for a table operation trace.
+ * The text form has one operation per line: "put key value", "get key", "remove key" or "rehash size".
+ * The binary form starts with {@link #MAGIC} followed by an op byte and its operands per operation.
+ */
+class Trace implements AutoCloseable {
+    /**
+     * Put operation.
+     */
+    public static final int PUT = 0;
+
+    /**
+     * Get operation.
+     */
+    public static final int GET = 1;
+
+    /**
+     * Remove operation.
+     */
+    public static final int REMOVE = 2;
+
+    /**
+     * Rehash operation.
+     */
+    public static final int REHASH = 3;
+
+    /**
+     * Operation names, by op.
+     */
+    public static final String[] NAMES = {"put", "get", "remove", "rehash"};
+
+    /**
+     * First bytes of a binary trace.
+     */
+    public static final int MAGIC = 0x48545243;
+
+    /**
+     * Text input, null for a binary trace.
+     */
+    private final BufferedReader text;
+
+    /**
+     * Binary input, null for a text trace.
+     */
+    private final DataInputStream binary;
+
+    /**
+     * Current line number of a text trace.
+     */
+    private int line = 0;
+
+    /**
+     * Current op.
+     */
+    public int op;
+
+    /**
+     * Current key.
+     */
+    public String key;
+
+    /**
+     * Current value.
+     */
+    public String value;
+
+    /**
+     * Current rehash size.
+     */
+    public int size;
+
+    /**
+     * Opens a trace, detecting its form from the first bytes.
+     * @param path File
+     * @throws IOException If the file can't be read
+     */
+    public Trace(String path) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(new FileInputStream(path), 1 << 16);
+        in.mark(4);
+        byte[] head = in.readNBytes(4);
+        in.reset();
+        boolean isBinary = head.length == 4
+                && ((head[0] & 0xFF) << 24 | (head[1] & 0xFF) << 16 | (head[2] & 0xFF) << 8 | (head[3] & 0xFF)) == MAGIC;
+
+        if (isBinary)
+        {
+            binary = new DataInputStream(in);
+            binary.readInt();
+            text = null;
+        }
+        else
+        {
+            text = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            binary = null;
+        }
+    }
+
+    /**
+     * Reads the next operation into the public fields.
+     * @return False at the end of the trace
+     * @throws IOException If the trace is malformed
+     */
+    public boolean next() throws IOException {
+        return binary != null ? nextBinary() : nextText();
+    }
+
+    /**
+     * Reads the next binary operation.
+     * @return False at the end of the trace
+     * @throws IOException If the trace is malformed
+     */
+    private boolean nextBinary() throws IOException {
+        int b = binary.read();
+        if (b < 0)
+            return false;
+        try
+        {
+            op = b;
+            switch (op) {
+                case PUT:
+                    key = binary.readUTF();
+                    value = binary.readUTF();
+                    break;
+                case GET:
+                case REMOVE:
+                    key = binary.readUTF();
+                    break;
+                case REHASH:
+                    size = binary.readInt();
+                    break;
+                default:
+                    throw new IOException("Unknown op " + op);
+            }
+        }
+        catch (EOFException e)
+        {
+            throw new IOException("Truncated trace", e);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next text operation, skipping blank lines and # comments.
+     * @return False at the end of the trace
+     * @throws IOException If the trace is malformed
+     */
+    private boolean nextText() throws IOException {
+        String s;
+        while ((s = text.readLine()) != null)
+        {
+            line++;
+            s = s.trim();
+            if (s.isEmpty() || s.startsWith("#"))
+                continue;
+
+            String[] parts = s.split("\\s+", 3);
+            try
+            {
+                switch (parts[0]) {
+                    case "put":
+                        op = PUT;
+                        key = parts[1];
+                        value = parts[2];
+                        break;
+                    case "get":
+                        op = GET;
+                        key = parts[1];
+                        break;
+                    case "remove":
+                        op = REMOVE;
+                        key = parts[1];
+                        break;
+                    case "rehash":
+                        op = REHASH;
+                        size = Integer.parseInt(parts[1]);
+                        break;
+                    default:
+                        throw new IOException("Unknown op on line " + line + ": " + s);
+                }
+            }
+            catch (RuntimeException e)
+            {
+                throw new IOException("Malformed line " + line + ": " + s, e);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Closes the trace.
+     * @throws IOException If closing fails
+     */
+    public void close() throws IOException {
+        if (binary != null)
+            binary.close();
+        else
+            text.close();
+    }
+
+    /**
+     * Writer for either trace form.
+     */
+    public static class Writer implements AutoCloseable {
+        /**
+         * Binary output, null for a text trace.
+         */
+        private final DataOutputStream binary;
+
+        /**
+         * Text output, null for a binary trace.
+         */
+        private final java.io.Writer text;
+
+        /**
+         * Trace writer constructor.
+         * @param path File
+         * @param isBinary Write the binary form
+         * @throws IOException If the file can't be created
+         */
+        public Writer(String path, boolean isBinary) throws IOException {
+            BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(path), 1 << 16);
+            if (isBinary)
+            {
+                binary = new DataOutputStream(out);
+                binary.writeInt(MAGIC);
+                text = null;
+            }
+            else
+            {
+                text = new java.io.OutputStreamWriter(out, StandardCharsets.UTF_8);
+                binary = null;
+            }
+        }
+
+        /**
+         * Writes a put.
+         * @param k Key
+         * @param v Value
+         * @throws IOException If writing fails
+         */
+        public void put(String k, String v) throws IOException {
+            if (binary != null)
+            {
+                binary.write(PUT);
+                binary.writeUTF(k);
+                binary.writeUTF(v);
+            }
+            else
+                text.write("put " + k + " " + v + "\n");
+        }
+
+        /**
+         * Writes a get or remove.
+         * @param op GET or REMOVE
+         * @param k Key
+         * @throws IOException If writing fails
+         */
+        public void key(int op, String k) throws IOException {
+            if (binary != null)
+            {
+                binary.write(op);
+                binary.writeUTF(k);
+            }
+            else
+                text.write(NAMES[op] + " " + k + "\n");
+        }
+
+        /**
+         * Writes a rehash.
+         * @param size New size
+         * @throws IOException If writing fails
+         */
+        public void rehash(int size) throws IOException {
+            if (binary != null)
+            {
+                binary.write(REHASH);
+                binary.writeInt(size);
+            }
+            else
+                text.write("rehash " + size + "\n");
+        }
+
+        /**
+         * Closes the trace.
+         * @throws IOException If closing fails
+         */
+        public void close() throws IOException {
+            if (binary != null)
+                binary.close();
+            else
+                text.close();
+        }
+    }
+}
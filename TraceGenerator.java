@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Synthetic trace generators.
+ */
+class TraceGenerator {
+    /**
+     * Skew of the Zipfian workload.
+     */
+    private static final double ZIPF_EXPONENT = 0.99;
+
+    /**
+     * Writes a trace.
+     * Every workload first puts all keys, then runs the given number of operations.
+     * @param workload uniform, zipf or churn
+     * @param ops Number of operations after the load phase
+     * @param keys Number of distinct keys
+     * @param seed Random seed
+     * @param out Trace writer
+     * @throws IOException If writing fails
+     */
+    public static void generate(String workload, int ops, int keys, long seed, Trace.Writer out) throws IOException {
+        if (keys < 1 || ops < 0)
+        {
+            throw new IllegalArgumentException();
+        }
+        if (!isWorkload(workload))
+        {
+            //Checked before the load phase so nothing is written for a bad workload.
+            throw new IllegalArgumentException("Unknown workload " + workload);
+        }
+
+        Random random = new Random(seed);
+        for (int i = 0; i < keys; i++)
+            out.put(key(i), value(random));
+
+        switch (workload) {
+            case "uniform":
+                mixed(ops, keys, random, out, null);
+                break;
+            case "zipf":
+                mixed(ops, keys, random, out, zipfTable(keys));
+                break;
+            case "churn":
+                churn(ops, keys, random, out);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Checks a workload name.
+     * @param workload Name
+     * @return True for uniform, zipf or churn
+     */
+    public static boolean isWorkload(String workload) {
+        return workload.equals("uniform") || workload.equals("zipf") || workload.equals("churn");
+    }
+
+    /**
+     * Writes a read-mostly mix: 80% get, 15% put, 5% remove.
+     * @param ops Number of operations
+     * @param keys Number of distinct keys
+     * @param random Random source
+     * @param out Trace writer
+     * @param zipf Cumulative key distribution, or null for uniform keys
+     * @throws IOException If writing fails
+     */
+    private static void mixed(int ops, int keys, Random random, Trace.Writer out, double[] zipf) throws IOException {
+        for (int i = 0; i < ops; i++)
+        {
+            int k = zipf == null ? random.nextInt(keys) : zipfKey(zipf, random);
+            int roll = random.nextInt(100);
+            if (roll < 80)
+                out.key(Trace.GET, key(k));
+            else if (roll < 95)
+                out.put(key(k), value(random));
+            else
+                out.key(Trace.REMOVE, key(k));
+        }
+    }
+
+    /**
+     * Writes a delete-heavy mix over a sliding window of live keys:
+     * 40% put of a new key, 40% remove of the oldest key, 20% get, with an occasional shrinking rehash.
+     * @param ops Number of operations
+     * @param keys Number of live keys
+     * @param random Random source
+     * @param out Trace writer
+     * @throws IOException If writing fails
+     */
+    private static void churn(int ops, int keys, Random random, Trace.Writer out) throws IOException {
+        int oldest = 0;
+        int next = keys;
+        for (int i = 0; i < ops; i++)
+        {
+            int roll = random.nextInt(100);
+            if (roll < 40)
+                out.put(key(next++), value(random));
+            else if (roll < 80 && oldest < next)
+                out.key(Trace.REMOVE, key(oldest++));
+            else if (oldest < next)
+                out.key(Trace.GET, key(oldest + random.nextInt(next - oldest)));
+
+            if (i % 100_000 == 99_999)
+                out.rehash(2 * (next - oldest) + 2);
+        }
+    }
+
+    /**
+     * Builds the cumulative distribution of a Zipfian key popularity.
+     * @param keys Number of keys
+     * @return Cumulative probabilities
+     */
+    private static double[] zipfTable(int keys) {
+        double[] cdf = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; i++)
+        {
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < keys; i++)
+            cdf[i] /= sum;
+        return cdf;
+    }
+
+    /**
+     * Draws a key from a Zipfian distribution.
+     * @param cdf Cumulative probabilities
+     * @param random Random source
+     * @return Key index
+     */
+    private static int zipfKey(double[] cdf, Random random) {
+        int i = java.util.Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(i < 0 ? -i - 1 : i, cdf.length - 1);
+    }
+
+    /**
+     * Key for an index.
+     * @param i Index
+     * @return Key
+     */
+    private static String key(int i) {
+        return "key" + i;
+    }
+
+    /**
+     * Random value.
+     * @param random Random source
+     * @return Value
+     */
+    private static String value(Random random) {
+        return Integer.toString(random.nextInt(1_000_000));
+    }
+}